@@ -3,10 +3,13 @@ package pt.owlsql;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Map.Entry;
 
 import pt.json.JSONException;
 import pt.owlsql.config.JSONConfig;
 
+import com.google.gson.JsonElement;
+
 
 public class Client {
     
@@ -20,9 +23,18 @@ public class Client {
         // Connect to the database and instantiate the necessary extractors
         connection = Extractor.connect();
         
-        // And then prepare all the extractors for use
+        // And then configure and prepare all the extractors for use
         for (Class<? extends Extractor> cls : JSONConfig.getExtractorClasses()) {
             Extractor extractor = Extractor.getExtractor(cls);
+            for (Entry<String, JsonElement> entry : JSONConfig.getParameters(cls).entrySet()) {
+                try {
+                    extractor.processOption(entry.getKey(), entry.getValue());
+                }
+                catch (JSONException e) {
+                    throw e.withPrefix("parameters", cls.getName(), entry.getKey());
+                }
+            }
+            
             try {
                 extractor.prepare();
             }
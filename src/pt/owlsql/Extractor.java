@@ -2,6 +2,7 @@ package pt.owlsql;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -18,6 +19,7 @@ import com.google.gson.JsonElement;
 public abstract class Extractor {
     
     private static Connection connection;
+    private static String connectionURI;
     private static Hashtable<Class<? extends Extractor>, Extractor> instances = new Hashtable<>();
     private static HashSet<Extractor> prepared = new HashSet<>();
     
@@ -41,6 +43,22 @@ public abstract class Extractor {
     
     
     static void closeConnection() {
+        try {
+            flushAll();
+        }
+        catch (SQLException e) {
+            System.err.println("Unable to write pending changes to the database");
+            e.printStackTrace();
+        }
+        
+        try {
+            closeAll();
+        }
+        catch (SQLException e) {
+            System.err.println("Unable to release the resources of the extractors");
+            e.printStackTrace();
+        }
+        
         try {
             connection.close();
         }
@@ -58,9 +76,18 @@ public abstract class Extractor {
         String password = JSONConfig.getPassword();
         
         // Setup the connection with the DB
-        String uri = "jdbc:mysql://" + host + "/" + database + "?user=" + username + "&password=" + password;
+        // Batched statements are rewritten by the driver into multi-row statements, which saves a round trip per row
+        connectionURI = "jdbc:mysql://"
+                + host
+                + "/"
+                + database
+                + "?user="
+                + username
+                + "&password="
+                + password
+                + "&rewriteBatchedStatements=true";
         try {
-            connection = DriverManager.getConnection(uri);
+            connection = DriverManager.getConnection(connectionURI);
         }
         catch (SQLException e) {
             throw new Error("Unable to connect to the specified database", e);
@@ -72,11 +99,51 @@ public abstract class Extractor {
     }
     
     
+    // Lets the prepared extractors read from the database whatever must survive a full wipe
+    static void beforeWipeAll() throws SQLException {
+        for (Extractor extractor : prepared) {
+            extractor.beforeWipe();
+        }
+    }
+    
+    
+    // Releases the connections and other resources that the prepared extractors opened on their own
+    static void closeAll() throws SQLException {
+        for (Extractor extractor : prepared) {
+            extractor.close();
+        }
+    }
+    
+    
+    // Writes to the database whatever the prepared extractors are holding back in memory
+    static void flushAll() throws SQLException {
+        for (Extractor extractor : prepared) {
+            extractor.flush();
+        }
+    }
+    
+    
     protected static Connection getConnection() {
         return connection;
     }
     
     
+    // Opens an additional connection to the same database, for work that cannot share the main one (concurrent
+    // lookups, streaming result sets, ...). The caller is responsible for closing it.
+    protected static Connection openConnection() throws SQLException {
+        if (connectionURI == null)
+            throw new SQLException("Not connected to the database");
+        return DriverManager.getConnection(connectionURI);
+    }
+    
+    
+    protected static boolean tableExists(String name) throws SQLException {
+        try (ResultSet resultSet = connection.getMetaData().getTables(null, null, name, null)) {
+            return resultSet.next();
+        }
+    }
+    
+    
     public static <U extends Extractor> U getExtractor(Class<U> cls) throws SQLException {
         if (!instances.containsKey(cls))
             throw new IllegalArgumentException("Extractor " + cls.getName() + " has not been initialized yet");
@@ -90,6 +157,24 @@ public abstract class Extractor {
     }
     
     
+    // Extractors that need data from a previous run must override this method to read it before a full wipe
+    protected void beforeWipe() throws SQLException {
+        // Nothing to keep by default
+    }
+    
+    
+    // Extractors that open connections of their own must override this method to close them
+    protected void close() throws SQLException {
+        // Nothing to close by default
+    }
+    
+    
+    // Extractors that defer writes to the database must override this method to perform them
+    protected void flush() throws SQLException {
+        // Nothing to write by default
+    }
+    
+    
     protected abstract void prepare() throws SQLException;
     
     
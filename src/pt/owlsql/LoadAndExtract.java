@@ -58,6 +58,7 @@ public class LoadAndExtract {
                     ((Cacher) extractor).cache();
                 else if (extractor instanceof OWLExtractor)
                     ((OWLExtractor) extractor).extract(ontologies);
+                Extractor.flushAll();
                 extractor.prepare();
             }
             catch (Exception e) {
@@ -318,8 +319,15 @@ public class LoadAndExtract {
         getExtractors();
         getOntologies();
         
-        if (fullWipe)
+        if (fullWipe) {
+            try {
+                Extractor.beforeWipeAll();
+            }
+            catch (SQLException e) {
+                exit("Unable to read the database before wiping it:\n" + e.getMessage());
+            }
             wipeDatabase();
+        }
         
         setupTables(); // Setup fundamental tables in the database
         extractAll(entryPointOntologies); // Extract all the information
@@ -532,6 +532,8 @@ public final class JSONConfig {
     
     
     public static Hashtable<String, JsonElement> getParameters(Class<? extends Extractor> cls) {
+        if (!parameters.containsKey(cls))
+            return new Hashtable<>();
         return parameters.get(cls);
     }
     
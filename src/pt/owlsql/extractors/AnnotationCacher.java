@@ -1,7 +1,7 @@
 package pt.owlsql.extractors;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.Connection;
@@ -9,10 +9,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashSet;
 
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLEntity;
 
 import pt.json.JSONException;
 import pt.owlsql.Cacher;
@@ -22,7 +24,10 @@ import com.google.gson.JsonElement;
 
 public final class AnnotationCacher extends Cacher {
     
-    private BufferedReader fileReader;
+    private static final int BATCH_SIZE = 1000;
+    
+    // The file is only opened when caching, so that clients can be configured without having it
+    private String file;
     private boolean wipe;
     private String corpus;
     
@@ -47,12 +52,12 @@ public final class AnnotationCacher extends Cacher {
         if (key.equals("file")) {
             if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString())
                 throw new JSONException("must be a string");
-            try {
-                fileReader = new BufferedReader(new FileReader(element.getAsString()));
-            }
-            catch (FileNotFoundException e) {
-                throw new JSONException(e.getMessage(), e);
-            }
+            file = element.getAsString();
+            
+            // The file is only read when caching, but a missing one is better reported before anything is wiped
+            File checked = new File(file);
+            if (!checked.isFile() || !checked.canRead())
+                throw new JSONException("must be the path of a readable file; cannot read " + file);
         }
         else if (key.equals("wipe")) {
             if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
@@ -96,11 +101,16 @@ public final class AnnotationCacher extends Cacher {
                 .prepareStatement("INSERT INTO annotations (entity, annotation, corpus) VALUES (?, ?, ?)");
         insertAnnotation.setString(3, corpus);
         
+        // Lines are resolved against the ontology in chunks, so that the IDs of their terms can be fetched together
+        IntList lineNums = new IntList(BATCH_SIZE);
+        ArrayList<String> entities = new ArrayList<>(BATCH_SIZE);
+        ArrayList<OWLClass> terms = new ArrayList<>(BATCH_SIZE);
+        
         String line;
         int lineNum = 0;
         int counter = 0;
         
-        try {
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(file))) {
             while ((line = fileReader.readLine()) != null) {
                 line = line.trim();
                 if (line.length() == 0 || line.startsWith("#"))
@@ -121,33 +131,53 @@ public final class AnnotationCacher extends Cacher {
                     continue;
                 }
                 
-                int annotationID = utils.getID(factory.getOWLClass(IRI.create(parts[1])));
-                if (annotationID == -1) {
-                    System.err.println("Ignoring line " + lineNum + ": unknown ontology term");
-                    continue;
-                }
-                
-                insertAnnotation.setString(1, entity);
-                insertAnnotation.setInt(2, annotationID);
-                insertAnnotation.addBatch();
+                lineNums.add(lineNum);
+                entities.add(entity);
+                terms.add(factory.getOWLClass(IRI.create(parts[1])));
                 
-                counter++;
-                if (counter % 1000 == 0) {
+                if (terms.size() == BATCH_SIZE) {
+                    counter += insertAnnotations(insertAnnotation, lineNums, entities, terms);
                     System.out.println("... " + counter + " annotations found ...");
-                    insertAnnotation.executeBatch();
                 }
             }
+            counter += insertAnnotations(insertAnnotation, lineNums, entities, terms);
+            System.out.println(counter + " annotations found");
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
         finally {
-            insertAnnotation.executeBatch();
             insertAnnotation.close();
         }
     }
     
     
+    private int insertAnnotations(PreparedStatement insertAnnotation, IntList lineNums, ArrayList<String> entities,
+            ArrayList<OWLClass> terms) throws SQLException {
+        int[] annotationIDs = utils.getIDs(terms);
+        
+        int counter = 0;
+        for (int i = 0; i < annotationIDs.length; i++) {
+            if (annotationIDs[i] == -1) {
+                System.err.println("Ignoring line " + lineNums.get(i) + ": unknown ontology term");
+                continue;
+            }
+            
+            insertAnnotation.setString(1, entities.get(i));
+            insertAnnotation.setInt(2, annotationIDs[i]);
+            insertAnnotation.addBatch();
+            counter++;
+        }
+        insertAnnotation.executeBatch();
+        
+        lineNums.clear();
+        entities.clear();
+        terms.clear();
+        
+        return counter;
+    }
+    
+    
     @Override
     protected void prepare() throws SQLException {
         Connection connection = getConnection();
@@ -162,16 +192,20 @@ public final class AnnotationCacher extends Cacher {
     
     
     public HashSet<OWLClass> getTransitiveAnnotations(String entity) throws SQLException {
-        HashSet<OWLClass> result = new HashSet<>();
+        IntList ids = new IntList();
         
         getTransitiveAnnotations.setString(1, entity);
         
         try (ResultSet resultSet = getTransitiveAnnotations.executeQuery()) {
             while (resultSet.next()) {
-                result.add(utils.getEntity(resultSet.getInt(1)).asOWLClass());
+                ids.add(resultSet.getInt(1));
             }
         }
         
+        HashSet<OWLClass> result = new HashSet<>();
+        for (OWLEntity owlEntity : utils.getEntities(ids.toArray())) {
+            result.add(owlEntity.asOWLClass());
+        }
         return result;
     }
 }
@@ -0,0 +1,28 @@
+package pt.owlsql.extractors;
+
+
+// The ancestors and descendants of each node of a ClassGraph, whether they are all computed beforehand or found when
+// they are asked for.
+abstract class ClassAncestry {
+    
+    // An ancestry of the same graph that another thread can use at the same time as this one
+    abstract ClassAncestry fork();
+    
+    
+    // The ancestors of the given node, sorted, including the node itself
+    abstract int[] getAncestors(int node);
+    
+    
+    abstract int getDescendantCount(int node);
+    
+    
+    // The descendants of the given node, sorted, including the node itself
+    abstract int[] getDescendants(int node);
+    
+    
+    // The distances to the ancestors of the given node, in the same order as getAncestors()
+    abstract int[] getDistances(int node);
+    
+    
+    abstract ClassGraph getGraph();
+}
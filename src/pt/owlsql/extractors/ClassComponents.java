@@ -0,0 +1,200 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+// The groups of classes that are all subclasses of each other, either because they are declared equivalent or because
+// their subclass relations form a cycle. Each group is represented by its class with the smallest internal ID, and the
+// hierarchy can be condensed so that it only contains the representatives. Classes that are alone in their group are
+// not stored, and are their own representatives.
+final class ClassComponents {
+    
+    // Finds the strongly connected components of the graph with an iterative version of Tarjan's algorithm
+    static ClassComponents compute(ClassGraph graph) {
+        int size = graph.size();
+        int[] index = new int[size];
+        int[] low = new int[size];
+        int[] visited = new int[size];
+        boolean[] onStack = new boolean[size];
+        Arrays.fill(index, -1);
+        
+        int[] calls = new int[size];
+        IntList stack = new IntList();
+        int counter = 0;
+        
+        IntList classes = new IntList();
+        IntList representatives = new IntList();
+        
+        for (int start = 0; start < size; start++) {
+            if (index[start] != -1)
+                continue;
+            
+            int top = 0;
+            calls[0] = start;
+            index[start] = low[start] = counter++;
+            stack.add(start);
+            onStack[start] = true;
+            
+            while (top >= 0) {
+                int node = calls[top];
+                if (visited[node] < graph.getParentCount(node)) {
+                    int parent = graph.getParent(node, visited[node]++);
+                    if (index[parent] == -1) {
+                        index[parent] = low[parent] = counter++;
+                        stack.add(parent);
+                        onStack[parent] = true;
+                        calls[++top] = parent;
+                    }
+                    else if (onStack[parent])
+                        low[node] = Math.min(low[node], index[parent]);
+                    continue;
+                }
+                
+                // All the parents are done; if this node is the root of a component, the component is on the stack
+                if (low[node] == index[node]) {
+                    IntList component = new IntList();
+                    int member;
+                    do {
+                        member = stack.removeLast();
+                        onStack[member] = false;
+                        component.add(graph.getID(member));
+                    } while (member != node);
+                    
+                    if (component.size() > 1) {
+                        int[] ids = component.toArray();
+                        Arrays.sort(ids);
+                        for (int id : ids) {
+                            classes.add(id);
+                            representatives.add(ids[0]);
+                        }
+                    }
+                }
+                
+                top--;
+                if (top >= 0)
+                    low[calls[top]] = Math.min(low[calls[top]], low[node]);
+            }
+        }
+        
+        return new ClassComponents(classes, representatives);
+    }
+    
+    private final int[] classes;
+    private final int[] representatives;
+    
+    // The representative of each class by internal ID (-1 for classes alone in their group), and the members of each
+    // group by the ID of its representative, sorted
+    private final int[] representativeOf;
+    private final HashMap<Integer, int[]> members = new HashMap<>();
+    
+    
+    // Builds the groups from pairs of class and representative; the representatives must be members of their groups
+    ClassComponents(IntList classes, IntList representatives) {
+        this.classes = classes.toArray();
+        this.representatives = representatives.toArray();
+        
+        int maxID = 0;
+        for (int id : this.classes) {
+            maxID = Math.max(maxID, id);
+        }
+        representativeOf = new int[maxID + 1];
+        Arrays.fill(representativeOf, -1);
+        
+        HashMap<Integer, IntList> groups = new HashMap<>();
+        for (int i = 0; i < this.classes.length; i++) {
+            representativeOf[this.classes[i]] = this.representatives[i];
+            IntList group = groups.get(this.representatives[i]);
+            if (group == null) {
+                group = new IntList();
+                groups.put(this.representatives[i], group);
+            }
+            group.add(this.classes[i]);
+        }
+        for (Integer representative : groups.keySet()) {
+            int[] group = groups.get(representative).toArray();
+            Arrays.sort(group);
+            members.put(representative, group);
+        }
+    }
+    
+    
+    // The graph of the representatives, with the relations of all the members of each group moved to its
+    // representative
+    ClassGraph condense(ClassGraph graph) {
+        IntList ids = new IntList();
+        IntList subclasses = new IntList();
+        IntList superclasses = new IntList();
+        for (int node = 0; node < graph.size(); node++) {
+            int id = graph.getID(node);
+            if (getRepresentative(id) == id)
+                ids.add(id);
+            for (int k = 0; k < graph.getParentCount(node); k++) {
+                subclasses.add(getRepresentative(id));
+                superclasses.add(getRepresentative(graph.getID(graph.getParent(node, k))));
+            }
+        }
+        return new ClassGraph(ids.toArray(), subclasses, superclasses);
+    }
+    
+    
+    // Adds to the given representatives all the other members of their groups, keeping the result sorted
+    int[] expand(int[] ids) {
+        IntList result = null;
+        for (int i = 0; i < ids.length; i++) {
+            int[] group = members.get(ids[i]);
+            if (group == null && result == null)
+                continue;
+            
+            if (result == null) {
+                result = new IntList(ids.length);
+                for (int j = 0; j < i; j++) {
+                    result.add(ids[j]);
+                }
+            }
+            if (group == null)
+                result.add(ids[i]);
+            else {
+                for (int member : group) {
+                    result.add(member);
+                }
+            }
+        }
+        if (result == null)
+            return ids;
+        
+        int[] array = result.toArray();
+        Arrays.sort(array);
+        return array;
+    }
+    
+    
+    int getClassAt(int i) {
+        return classes[i];
+    }
+    
+    
+    // The members of the group of the given representative, sorted, or just the class if it is alone
+    int[] getMembers(int representative) {
+        int[] group = members.get(representative);
+        return group == null ? new int[] { representative } : group.clone();
+    }
+    
+    
+    int getRepresentative(int id) {
+        if (id < 0 || id >= representativeOf.length || representativeOf[id] == -1)
+            return id;
+        return representativeOf[id];
+    }
+    
+    
+    int getRepresentativeAt(int i) {
+        return representatives[i];
+    }
+    
+    
+    // The number of classes that are not alone in their group
+    int size() {
+        return classes.length;
+    }
+}
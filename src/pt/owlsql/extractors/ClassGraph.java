@@ -0,0 +1,255 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+
+
+// The direct subclass relations between named classes, in compressed sparse row form. Classes are renumbered densely
+// from 0 to size() - 1 (their "nodes"), in increasing order of their IDs, and the parents and children of each node
+// are stored contiguously in two flat arrays, so that the whole graph takes a few integers per class and per edge.
+// Since nodes and IDs are in the same order, sorted nodes translate into sorted IDs.
+final class ClassGraph {
+    
+    private static int[] toRows(int size, int[] from, int[] to, int[] start) {
+        // Count the edges of each node, accumulate the counts into offsets and then fill the rows
+        for (int i = 0; i < from.length; i++) {
+            start[from[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            start[i + 1] += start[i];
+        }
+        
+        int[] result = new int[from.length];
+        int[] next = Arrays.copyOf(start, size);
+        for (int i = 0; i < from.length; i++) {
+            result[next[from[i]]++] = to[i];
+        }
+        return result;
+    }
+    
+    private final int[] ids;
+    private final int[] nodes;
+    
+    private final int[] parentStart;
+    private final int[] parents;
+    private final int[] childStart;
+    private final int[] children;
+    
+    private int[] topologicalOrder;
+    private int[] layerStarts;
+    
+    
+    // Builds the graph of the given classes (by internal ID) from a list of subclass-superclass pairs. Pairs that
+    // mention unknown classes, duplicate pairs and pairs that relate a class to itself are ignored.
+    ClassGraph(int[] ids, IntList subclasses, IntList superclasses) {
+        this.ids = ids.clone();
+        Arrays.sort(this.ids);
+        
+        int maxID = this.ids.length == 0 ? 0 : this.ids[this.ids.length - 1];
+        nodes = new int[maxID + 1];
+        Arrays.fill(nodes, -1);
+        for (int i = 0; i < this.ids.length; i++) {
+            nodes[this.ids[i]] = i;
+        }
+        
+        // Translate the pairs into nodes
+        IntList from = new IntList(subclasses.size());
+        IntList to = new IntList(subclasses.size());
+        for (int i = 0; i < subclasses.size(); i++) {
+            int subclass = getNode(subclasses.get(i));
+            int superclass = getNode(superclasses.get(i));
+            if (subclass == -1 || superclass == -1 || subclass == superclass)
+                continue;
+            from.add(subclass);
+            to.add(superclass);
+        }
+        
+        // Build the rows of parents, and remove duplicates within each one of them
+        int size = ids.length;
+        int[] start = new int[size + 1];
+        int[] rows = toRows(size, from.toArray(), to.toArray(), start);
+        IntList uniqueFrom = new IntList(rows.length);
+        IntList uniqueTo = new IntList(rows.length);
+        for (int node = 0; node < size; node++) {
+            Arrays.sort(rows, start[node], start[node + 1]);
+            for (int k = start[node]; k < start[node + 1]; k++) {
+                if (k == start[node] || rows[k] != rows[k - 1]) {
+                    uniqueFrom.add(node);
+                    uniqueTo.add(rows[k]);
+                }
+            }
+        }
+        
+        int[] subNodes = uniqueFrom.toArray();
+        int[] superNodes = uniqueTo.toArray();
+        parentStart = new int[size + 1];
+        parents = toRows(size, subNodes, superNodes, parentStart);
+        childStart = new int[size + 1];
+        children = toRows(size, superNodes, subNodes, childStart);
+    }
+    
+    
+    private void sort() {
+        int size = size();
+        int[] pending = new int[size];
+        IntList result = new IntList(size);
+        for (int node = 0; node < size; node++) {
+            pending[node] = getParentCount(node);
+            if (pending[node] == 0)
+                result.add(node);
+        }
+        
+        // Process one layer at a time; the nodes whose last parent is in this layer make up the next one
+        IntList starts = new IntList();
+        int begin = 0;
+        while (begin < result.size()) {
+            starts.add(begin);
+            int end = result.size();
+            for (int i = begin; i < end; i++) {
+                int node = result.get(i);
+                for (int k = childStart[node]; k < childStart[node + 1]; k++) {
+                    if (--pending[children[k]] == 0)
+                        result.add(children[k]);
+                }
+            }
+            begin = end;
+        }
+        starts.add(result.size());
+        
+        topologicalOrder = result.toArray();
+        layerStarts = starts.toArray();
+    }
+    
+    
+    int getChild(int node, int index) {
+        return children[childStart[node] + index];
+    }
+    
+    
+    int getChildCount(int node) {
+        return childStart[node + 1] - childStart[node];
+    }
+    
+    
+    // The IDs of the children of the node, sorted
+    int[] getChildIDs(int node) {
+        int[] result = new int[getChildCount(node)];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = ids[getChild(node, k)];
+        }
+        return result;
+    }
+    
+    
+    int getEdgeCount() {
+        return parents.length;
+    }
+    
+    
+    int getID(int node) {
+        return ids[node];
+    }
+    
+    
+    // The IDs of the given nodes; if the nodes are sorted, so are the IDs
+    int[] getIDs(int[] nodes) {
+        int[] result = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[i] = ids[nodes[i]];
+        }
+        return result;
+    }
+    
+    
+    // The node of the class with the given internal ID, or -1 if the class is not in the graph
+    int getNode(int id) {
+        if (id < 0 || id >= nodes.length)
+            return -1;
+        return nodes[id];
+    }
+    
+    
+    int getParent(int node, int index) {
+        return parents[parentStart[node] + index];
+    }
+    
+    
+    int getParentCount(int node) {
+        return parentStart[node + 1] - parentStart[node];
+    }
+    
+    
+    // The IDs of the parents of the node, sorted
+    int[] getParentIDs(int node) {
+        int[] result = new int[getParentCount(node)];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = ids[getParent(node, k)];
+        }
+        return result;
+    }
+    
+    
+    // The topological order grouped in layers: layer k is made of the nodes between positions getLayerStarts()[k]
+    // (inclusive) and getLayerStarts()[k + 1] (exclusive), and all their parents are in earlier layers
+    synchronized int[] getLayerStarts() {
+        if (layerStarts == null)
+            sort();
+        return layerStarts;
+    }
+    
+    
+    // The nodes in an order where every node comes after all of its parents. Nodes that are part of a cycle, or that
+    // descend from one, have no such order and are left out.
+    synchronized int[] getTopologicalOrder() {
+        if (topologicalOrder == null)
+            sort();
+        return topologicalOrder;
+    }
+    
+    
+    // The graph without the direct relations that are implied by others: a parent of a class is dropped if it is also
+    // an ancestor of another parent. Each class with several parents searches upwards from its grandparents, so no
+    // closure is needed. Only classes in the topological order are reduced, since in a cycle the other parent can reach
+    // this one through the class itself
+    ClassGraph getTransitiveReduction() {
+        int nodes = size();
+        boolean[] acyclic = new boolean[nodes];
+        for (int node : getTopologicalOrder()) {
+            acyclic[node] = true;
+        }
+        
+        GraphSearch search = new GraphSearch(this);
+        IntList subclasses = new IntList(getEdgeCount());
+        IntList superclasses = new IntList(getEdgeCount());
+        for (int node = 0; node < nodes; node++) {
+            int count = getParentCount(node);
+            
+            // The ancestors of the parents, not counting the parents themselves unless one is above another
+            int[] above = null;
+            if (acyclic[node] && count > 1) {
+                for (int k = 0; k < count; k++) {
+                    int parent = getParent(node, k);
+                    for (int j = 0; j < getParentCount(parent); j++) {
+                        search.reach(getParent(parent, j), 0);
+                    }
+                }
+                search.expand(true);
+                above = search.finish(false)[0];
+            }
+            
+            for (int k = 0; k < count; k++) {
+                int parent = getParent(node, k);
+                if (above == null || Arrays.binarySearch(above, parent) < 0) {
+                    subclasses.add(ids[node]);
+                    superclasses.add(ids[parent]);
+                }
+            }
+        }
+        
+        return new ClassGraph(ids, subclasses, superclasses);
+    }
+    
+    
+    int size() {
+        return ids.length;
+    }
+}
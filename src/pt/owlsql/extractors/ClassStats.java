@@ -0,0 +1,162 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+
+
+// Per-class statistics of the hierarchy, stored column by column: for each class, the number of its ancestors and of
+// its descendants (both including the class itself), the length of the shortest path to a root class (min depth), the
+// largest distance to any of its ancestors (max depth), and the number of its descendants that are leaves. A class is
+// a leaf when the leaves among its descendants are all of its descendants.
+final class ClassStats {
+    
+    // Computes the statistics of every class of the closure. Everything is derived from the ancestors of each node, so
+    // the closure never needs to be inverted. If the closure is of a condensed hierarchy, each node stands for all the
+    // members of its group, which are counted as such and get a row each
+    static ClassStats compute(ClassAncestry closure, ClassComponents components) {
+        ClassGraph graph = closure.getGraph();
+        int size = graph.size();
+        
+        int[] weights = new int[size];
+        int rows = 0;
+        for (int node = 0; node < size; node++) {
+            weights[node] = components == null ? 1 : components.getMembers(graph.getID(node)).length;
+            rows += weights[node];
+        }
+        
+        int[] nodeDescendants = new int[size];
+        int[] ancestorCounts = new int[size];
+        int[] descendantCounts = new int[size];
+        int[] minDepths = new int[size];
+        int[] maxDepths = new int[size];
+        int[] leafCounts = new int[size];
+        
+        for (int node = 0; node < size; node++) {
+            int[] ancestors = closure.getAncestors(node);
+            int[] distances = closure.getDistances(node);
+            
+            // Classes in a cycle without a root are taken to be at the top of the hierarchy
+            int minDepth = Integer.MAX_VALUE;
+            for (int i = 0; i < ancestors.length; i++) {
+                ancestorCounts[node] += weights[ancestors[i]];
+                descendantCounts[ancestors[i]] += weights[node];
+                nodeDescendants[ancestors[i]]++;
+                maxDepths[node] = Math.max(maxDepths[node], distances[i]);
+                if (graph.getParentCount(ancestors[i]) == 0)
+                    minDepth = Math.min(minDepth, distances[i]);
+            }
+            minDepths[node] = minDepth == Integer.MAX_VALUE ? 0 : minDepth;
+        }
+        
+        // A leaf is a class whose only descendants are itself and the classes equivalent to it
+        for (int node = 0; node < size; node++) {
+            if (nodeDescendants[node] != 1)
+                continue;
+            for (int ancestor : closure.getAncestors(node)) {
+                leafCounts[ancestor] += weights[node];
+            }
+        }
+        
+        // Finally, give each class its row
+        int[][] columns = new int[6][rows];
+        int row = 0;
+        for (int node = 0; node < size; node++) {
+            int id = graph.getID(node);
+            int[] members = components == null ? new int[] { id } : components.getMembers(id);
+            for (int member : members) {
+                columns[0][row] = member;
+                columns[1][row] = ancestorCounts[node];
+                columns[2][row] = descendantCounts[node];
+                columns[3][row] = minDepths[node];
+                columns[4][row] = maxDepths[node];
+                columns[5][row] = leafCounts[node];
+                row++;
+            }
+        }
+        
+        return new ClassStats(columns[0], columns[1], columns[2], columns[3], columns[4], columns[5]);
+    }
+    
+    private final int[] ids;
+    private final int[] rows;
+    
+    private final int[] ancestorCounts;
+    private final int[] descendantCounts;
+    private final int[] minDepths;
+    private final int[] maxDepths;
+    private final int[] leafCounts;
+    private final int maxDepth;
+    
+    
+    // Row i holds the statistics of the class with internal ID ids[i]
+    ClassStats(int[] ids, int[] ancestorCounts, int[] descendantCounts, int[] minDepths, int[] maxDepths,
+            int[] leafCounts) {
+        this.ids = ids;
+        this.ancestorCounts = ancestorCounts;
+        this.descendantCounts = descendantCounts;
+        this.minDepths = minDepths;
+        this.maxDepths = maxDepths;
+        this.leafCounts = leafCounts;
+        
+        int maxID = 0;
+        int max = 0;
+        for (int i = 0; i < ids.length; i++) {
+            maxID = Math.max(maxID, ids[i]);
+            max = Math.max(max, maxDepths[i]);
+        }
+        maxDepth = max;
+        
+        rows = new int[maxID + 1];
+        Arrays.fill(rows, -1);
+        for (int i = 0; i < ids.length; i++) {
+            rows[ids[i]] = i;
+        }
+    }
+    
+    
+    int getAncestorCount(int row) {
+        return ancestorCounts[row];
+    }
+    
+    
+    int getDescendantCount(int row) {
+        return descendantCounts[row];
+    }
+    
+    
+    int getID(int row) {
+        return ids[row];
+    }
+    
+    
+    int getLeafCount(int row) {
+        return leafCounts[row];
+    }
+    
+    
+    int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    
+    int getMaxDepth(int row) {
+        return maxDepths[row];
+    }
+    
+    
+    int getMinDepth(int row) {
+        return minDepths[row];
+    }
+    
+    
+    // The row of the class with the given internal ID, or -1 if the class is unknown
+    int getRow(int id) {
+        if (id < 0 || id >= rows.length)
+            return -1;
+        return rows[id];
+    }
+    
+    
+    int size() {
+        return ids.length;
+    }
+}
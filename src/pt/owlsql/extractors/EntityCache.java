@@ -0,0 +1,203 @@
+package pt.owlsql.extractors;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// A concurrent cache with an optional bound on the number of entries. Reads never lock. When the cache is full, a new
+// entry is admitted only if it has been requested more often than the oldest entry in the cache (TinyLFU admission
+// over a FIFO queue), so that one-off lookups cannot push out the entries that are actually reused. Request
+// frequencies are approximated with a count-min sketch of saturating counters that are halved periodically, so that the
+// policy adapts when the workload changes.
+public final class EntityCache<K, V> {
+    
+    private static final int SKETCH_DEPTH = 4;
+    private static final int MAX_FREQUENCY = 15;
+    private static final int[] SEEDS = { 0x97cb3127, 0xb8a1b3a5, 0x2d8f9e3b, 0x7a5f4c61 };
+    
+    
+    private static int spread(int hash, int seed) {
+        hash *= seed;
+        hash ^= hash >>> 17;
+        hash *= 0xed5ad4bb;
+        hash ^= hash >>> 11;
+        return hash;
+    }
+    
+    private final int capacity;
+    private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+    
+    // Admission and eviction state, guarded by the queue itself
+    private final ArrayDeque<K> queue = new ArrayDeque<>();
+    
+    // The sketch is updated without synchronization: a lost increment only makes a frequency estimate slightly lower
+    private final int[] sketch;
+    private final int sketchMask;
+    private final int sampleSize;
+    
+    // The counters touched on every read are striped, so that threads reading at the same time do not contend on them
+    private final StripedCounter samples = new StripedCounter();
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    
+    
+    // A capacity of 0 means the cache is unbounded
+    EntityCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative");
+        this.capacity = capacity;
+        
+        if (capacity > 0) {
+            int width = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            sketch = new int[SKETCH_DEPTH * width];
+            sketchMask = width - 1;
+            sampleSize = 10 * capacity;
+        }
+        else {
+            sketch = null;
+            sketchMask = 0;
+            sampleSize = 0;
+        }
+    }
+    
+    
+    private int frequency(K key) {
+        int hash = key.hashCode();
+        int result = MAX_FREQUENCY;
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = i * (sketchMask + 1) + (spread(hash, SEEDS[i]) & sketchMask);
+            result = Math.min(result, sketch[index]);
+        }
+        return result;
+    }
+    
+    
+    private void recordAccess(K key) {
+        if (sketch == null)
+            return;
+        
+        int hash = key.hashCode();
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = i * (sketchMask + 1) + (spread(hash, SEEDS[i]) & sketchMask);
+            if (sketch[index] < MAX_FREQUENCY)
+                sketch[index]++;
+        }
+        
+        // Age the sketch so that old popularity fades away. Summing the samples is not free, so each thread only does
+        // it every so often
+        int interval = Math.max(1, sampleSize / samples.getStripes());
+        if (samples.increment() % interval == 0 && samples.get() >= sampleSize) {
+            synchronized (queue) {
+                if (samples.get() >= sampleSize) {
+                    for (int i = 0; i < sketch.length; i++) {
+                        sketch[i] >>>= 1;
+                    }
+                    samples.reset();
+                }
+            }
+        }
+    }
+    
+    
+    void clear() {
+        synchronized (queue) {
+            map.clear();
+            queue.clear();
+            if (sketch != null)
+                Arrays.fill(sketch, 0);
+            samples.reset();
+        }
+    }
+    
+    
+    V get(K key) {
+        V result = map.get(key);
+        recordAccess(key);
+        if (result != null)
+            hits.increment();
+        else
+            misses.increment();
+        return result;
+    }
+    
+    
+    void put(K key, V value) {
+        if (capacity == 0) {
+            map.put(key, value);
+            return;
+        }
+        
+        synchronized (queue) {
+            if (map.containsKey(key)) {
+                map.put(key, value);
+                return;
+            }
+            
+            if (map.size() >= capacity) {
+                K victim = queue.peekFirst();
+                if (frequency(key) <= frequency(victim)) {
+                    // The victim is more popular; give it another round at the back of the queue
+                    queue.addLast(queue.pollFirst());
+                    rejections.incrementAndGet();
+                    return;
+                }
+                queue.pollFirst();
+                map.remove(victim);
+                evictions.incrementAndGet();
+            }
+            
+            map.put(key, value);
+            queue.addLast(key);
+        }
+    }
+    
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    
+    public long getEvictions() {
+        return evictions.get();
+    }
+    
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    
+    public long getRejections() {
+        return rejections.get();
+    }
+    
+    
+    public int size() {
+        return map.size();
+    }
+    
+    
+    @Override
+    public String toString() {
+        return "size="
+                + size()
+                + (capacity > 0 ? "/" + capacity : "")
+                + ", hits="
+                + getHits()
+                + ", misses="
+                + getMisses()
+                + ", evictions="
+                + getEvictions()
+                + ", rejections="
+                + getRejections();
+    }
+}
@@ -0,0 +1,96 @@
+package pt.owlsql.extractors;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.semanticweb.owlapi.model.OWLEntity;
+
+
+// Iterates over the rows of owl_objects as they arrive from the server, instead of buffering the whole result.
+// Since MySQL does not allow other statements on a connection while a result set is being streamed, each cursor owns
+// a connection of its own, which is closed together with the cursor. Always close cursors, preferably with a
+// try-with-resources block.
+public final class EntityCursor<U extends OWLEntity> implements Iterator<U>, AutoCloseable {
+    
+    private final Connection connection;
+    private final Statement statement;
+    private final ResultSet resultSet;
+    
+    private boolean advanced;
+    private boolean hasNext;
+    private int id = -1;
+    
+    
+    EntityCursor(Connection connection, String query) throws SQLException {
+        this.connection = connection;
+        
+        statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        resultSet = statement.executeQuery(query);
+    }
+    
+    
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+            statement.close();
+        }
+        finally {
+            connection.close();
+        }
+    }
+    
+    
+    // The internal ID of the entity that was last returned by next()
+    public int getID() {
+        if (id == -1)
+            throw new IllegalStateException("next() has not been called yet");
+        return id;
+    }
+    
+    
+    @Override
+    public boolean hasNext() {
+        if (!advanced) {
+            try {
+                hasNext = resultSet.next();
+            }
+            catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            advanced = true;
+        }
+        return hasNext;
+    }
+    
+    
+    @Override
+    public U next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        advanced = false;
+        
+        try {
+            id = resultSet.getInt(1);
+            
+            // The query only returns entities of the requested type, so this cast is safe
+            @SuppressWarnings("unchecked")
+            U result = (U) SQLCoreUtils.getEntity(resultSet.getString(2), resultSet.getString(3));
+            return result;
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Operation not supported.");
+    }
+}
@@ -0,0 +1,78 @@
+package pt.owlsql.extractors;
+
+import org.semanticweb.owlapi.model.OWLEntity;
+
+
+// An in-memory copy of the owl_objects table. Entities are stored in an array indexed by their internal ID, and the
+// reverse mapping is an open-addressing hash table that stores only the IDs (the keys are recovered from the array),
+// so that neither direction needs boxed integers.
+final class EntityDictionary {
+    
+    private static int mix(int hash) {
+        // Murmur3 finalizer, to spread the bits of the OWL API hash codes over the whole table
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+    
+    private final OWLEntity[] entities;
+    private final int[] slots;
+    private final int mask;
+    private int size;
+    
+    
+    EntityDictionary(int maxID, int expectedSize) {
+        entities = new OWLEntity[maxID + 1];
+        
+        // Keep the load factor at or below 0.5 to keep the probe sequences short
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1) << 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+    }
+    
+    
+    OWLEntity getEntity(int id) {
+        if (id < 0 || id >= entities.length)
+            return null;
+        return entities[id];
+    }
+    
+    
+    int getID(OWLEntity entity) {
+        int index = mix(entity.hashCode()) & mask;
+        while (true) {
+            int id = slots[index];
+            if (id == 0)
+                return -1;
+            if (entities[id].equals(entity))
+                return id;
+            index = (index + 1) & mask;
+        }
+    }
+    
+    
+    void put(int id, OWLEntity entity) {
+        if (id <= 0)
+            throw new IllegalArgumentException("Entity IDs must be positive");
+        if (entities[id] != null)
+            throw new IllegalStateException("Duplicate entity ID " + id);
+        if (2 * (size + 1) > slots.length)
+            throw new IllegalStateException("Dictionary is full");
+        
+        entities[id] = entity;
+        int index = mix(entity.hashCode()) & mask;
+        while (slots[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        slots[index] = id;
+        size++;
+    }
+    
+    
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,61 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+
+
+// The working space of a search through a ClassGraph: the distance to each node found so far (-1 if not found), and
+// the nodes that were found. A search reaches its starting nodes, expands from them, and ends with finish(), which
+// leaves the working space ready for the next one. It is not safe to use from more than one thread.
+final class GraphSearch {
+    
+    private final ClassGraph graph;
+    private final int[] found;
+    private final IntList touched = new IntList();
+    
+    
+    GraphSearch(ClassGraph graph) {
+        this.graph = graph;
+        found = new int[graph.size()];
+        Arrays.fill(found, -1);
+    }
+    
+    
+    // Follows the parents (or the children) of the nodes found so far, breadth-first, so that each node newly found
+    // gets its shortest distance
+    void expand(boolean up) {
+        for (int i = 0; i < touched.size(); i++) {
+            int current = touched.get(i);
+            int count = up ? graph.getParentCount(current) : graph.getChildCount(current);
+            for (int k = 0; k < count; k++) {
+                int next = up ? graph.getParent(current, k) : graph.getChild(current, k);
+                if (found[next] == -1)
+                    reach(next, found[current] + 1);
+            }
+        }
+    }
+    
+    
+    // The nodes found, sorted, and, if asked for, their distances in the same order
+    int[][] finish(boolean withDistances) {
+        int[] nodes = touched.toArray();
+        Arrays.sort(nodes);
+        int[] distances = withDistances ? new int[nodes.length] : null;
+        for (int i = 0; i < nodes.length; i++) {
+            if (withDistances)
+                distances[i] = found[nodes[i]];
+            found[nodes[i]] = -1;
+        }
+        touched.clear();
+        return new int[][] { nodes, distances };
+    }
+    
+    
+    // Finds the node at the given distance, unless it was already found closer
+    void reach(int node, int distance) {
+        if (found[node] == -1)
+            touched.add(node);
+        else if (found[node] <= distance)
+            return;
+        found[node] = distance;
+    }
+}
@@ -0,0 +1,202 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+// The reflexive transitive closure of a ClassGraph, with the length of the shortest path from each class to each one of
+// its ancestors. Classes are visited in topological order, so that the ancestors of a class are simply the union of the
+// ancestors of its parents, one step further away. Classes that are part of a cycle, or that descend from one, have
+// their ancestors found with a breadth-first search instead.
+// The classes of a topological layer do not depend on each other, so each layer is processed in parallel.
+final class HierarchyClosure extends ClassAncestry {
+    
+    // Processes a range of nodes, splitting it in halves until it is small enough
+    private final class LayerTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int[] nodes;
+        private final int from;
+        private final int to;
+        private final boolean search;
+        
+        
+        private LayerTask(int[] nodes, int from, int to, boolean search) {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+            this.search = search;
+        }
+        
+        
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                GraphSearch s = scratch.get();
+                for (int i = from; i < to; i++) {
+                    s.reach(nodes[i], 0);
+                    if (search)
+                        s.expand(true);
+                    else
+                        merge(s, nodes[i]);
+                    
+                    int[][] result = s.finish(true);
+                    ancestors[nodes[i]] = result[0];
+                    distances[nodes[i]] = result[1];
+                }
+            }
+            else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LayerTask(nodes, from, middle, search), new LayerTask(nodes, middle, to, search));
+            }
+        }
+    }
+    
+    
+    // Below this number of nodes, a task is not split any further
+    private static final int GRAIN = 256;
+    
+    private final ClassGraph graph;
+    
+    // For each node, its ancestors (sorted, and including the node itself) and their distances
+    private final int[][] ancestors;
+    private final int[][] distances;
+    private long size;
+    
+    // The inverse of the closure, computed only when needed: the descendants of node i are in positions
+    // descendantStart[i] (inclusive) to descendantStart[i + 1] (exclusive) of descendants, sorted
+    private long[] descendantStart;
+    private int[] descendants;
+    
+    private final ThreadLocal<GraphSearch> scratch = new ThreadLocal<GraphSearch>() {
+        @Override
+        protected GraphSearch initialValue() {
+            return new GraphSearch(graph);
+        }
+    };
+    
+    
+    HierarchyClosure(ClassGraph graph, int threads) {
+        this.graph = graph;
+        
+        int nodes = graph.size();
+        ancestors = new int[nodes][];
+        distances = new int[nodes][];
+        
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            int[] order = graph.getTopologicalOrder();
+            int[] layerStarts = graph.getLayerStarts();
+            for (int layer = 0; layer + 1 < layerStarts.length; layer++) {
+                pool.invoke(new LayerTask(order, layerStarts[layer], layerStarts[layer + 1], false));
+            }
+            
+            // The nodes left out of the topological order do not depend on each other's results
+            IntList remaining = new IntList();
+            for (int node = 0; node < nodes; node++) {
+                if (ancestors[node] == null)
+                    remaining.add(node);
+            }
+            pool.invoke(new LayerTask(remaining.toArray(), 0, remaining.size(), true));
+        }
+        finally {
+            pool.shutdown();
+        }
+        
+        for (int node = 0; node < nodes; node++) {
+            size += ancestors[node].length;
+        }
+    }
+    
+    
+    private void invert() {
+        int nodes = graph.size();
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalStateException("The closure is too large to be inverted in memory");
+        
+        // Count the descendants of each node, accumulate the counts into offsets, and fill in the descendants. Nodes
+        // are visited in increasing order, so each list of descendants ends up sorted
+        descendantStart = new long[nodes + 1];
+        for (int node = 0; node < nodes; node++) {
+            for (int ancestor : ancestors[node]) {
+                descendantStart[ancestor + 1]++;
+            }
+        }
+        for (int node = 0; node < nodes; node++) {
+            descendantStart[node + 1] += descendantStart[node];
+        }
+        
+        descendants = new int[(int) size];
+        int[] next = new int[nodes];
+        for (int node = 0; node < nodes; node++) {
+            next[node] = (int) descendantStart[node];
+        }
+        for (int node = 0; node < nodes; node++) {
+            for (int ancestor : ancestors[node]) {
+                descendants[next[ancestor]++] = node;
+            }
+        }
+    }
+    
+    
+    // Reaches the ancestors of the parents of the node, one step further away than from the parents
+    private void merge(GraphSearch search, int node) {
+        for (int k = 0; k < graph.getParentCount(node); k++) {
+            int parent = graph.getParent(node, k);
+            int[] parentAncestors = ancestors[parent];
+            int[] parentDistances = distances[parent];
+            for (int i = 0; i < parentAncestors.length; i++) {
+                search.reach(parentAncestors[i], parentDistances[i] + 1);
+            }
+        }
+    }
+    
+    
+    // Once computed, the ancestors are only read, so they can be shared
+    @Override
+    ClassAncestry fork() {
+        return this;
+    }
+    
+    
+    @Override
+    int[] getAncestors(int node) {
+        return ancestors[node];
+    }
+    
+    
+    @Override
+    synchronized int getDescendantCount(int node) {
+        if (descendants == null)
+            invert();
+        return (int) (descendantStart[node + 1] - descendantStart[node]);
+    }
+    
+    
+    @Override
+    synchronized int[] getDescendants(int node) {
+        if (descendants == null)
+            invert();
+        return Arrays.copyOfRange(descendants, (int) descendantStart[node], (int) descendantStart[node + 1]);
+    }
+    
+    
+    @Override
+    int[] getDistances(int node) {
+        return distances[node];
+    }
+    
+    
+    @Override
+    ClassGraph getGraph() {
+        return graph;
+    }
+    
+    
+    // The number of (class, ancestor) pairs in the closure
+    long size() {
+        return size;
+    }
+}
@@ -5,83 +5,829 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.EntityType;
-import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
 
+import pt.json.JSONException;
+import pt.owlsql.Extractor;
 import pt.owlsql.OWLExtractor;
+import pt.owlsql.config.JSONConfig;
+
+import com.google.gson.JsonElement;
 
 
 public final class HierarchyExtractor extends OWLExtractor {
     
     private static final OWLClass OWL_THING = factory.getOWLThing();
+    private static final int BATCH_SIZE = 1000;
     
-    private PreparedStatement getDepthStatement;
+    // The number of interval labelings of the reachability index, and the seed of their random traversals
+    private static final int LABELINGS = 3;
+    private static final long LABELS_SEED = 0x5eed;
+    
+    // The number of classes whose ancestors are counted to estimate the size of the closure, and the seed that picks
+    // them
+    private static final int ESTIMATE_SAMPLES = 1000;
+    private static final long ESTIMATE_SEED = 0xc105e;
+    
+    // Above this fraction of affected classes, rewriting the whole closure is faster than updating it row by row. This
+    // is always the case when the entities were renumbered, e.g. because SQLCoreUtils does not keep their IDs
+    private static final double INCREMENTAL_LIMIT = 0.25;
+    
+    // The extractors that join the hierarchy table in their own queries on the IDs of any class, and so cannot work
+    // when the closure is stored in any other way or only for the representatives of a condensed hierarchy
+    private static final List<Class<? extends Extractor>> TABLE_READERS = Arrays.<Class<? extends Extractor>> asList(
+            AnnotationCacher.class, ExtrinsicICExtractor.class, OWLAnnotationsExtractor.class);
+    
+    // The extra that changes every time the hierarchy is extracted, so that in-memory copies know when to reload
+    private static final String VERSION_EXTRA = "hierarchy.version";
+    
+    
+    // The classes whose ancestors may differ between the two graphs: those whose direct superclasses changed, those
+    // that appeared or disappeared, and all their descendants, in either graph
+    private static BitSet findAffected(ClassGraph oldGraph, ClassGraph graph) {
+        IntList changed = new IntList();
+        for (int node = 0; node < graph.size(); node++) {
+            int oldNode = oldGraph.getNode(graph.getID(node));
+            if (oldNode == -1 || !Arrays.equals(oldGraph.getParentIDs(oldNode), graph.getParentIDs(node)))
+                changed.add(graph.getID(node));
+        }
+        for (int oldNode = 0; oldNode < oldGraph.size(); oldNode++) {
+            if (graph.getNode(oldGraph.getID(oldNode)) == -1)
+                changed.add(oldGraph.getID(oldNode));
+        }
+        
+        BitSet result = new BitSet();
+        markDescendants(oldGraph, changed, result);
+        markDescendants(graph, changed, result);
+        return result;
+    }
+    
+    
+    // Marks the given classes and all their descendants in the graph
+    private static void markDescendants(ClassGraph graph, IntList ids, BitSet marked) {
+        IntList stack = new IntList();
+        for (int i = 0; i < ids.size(); i++) {
+            int node = graph.getNode(ids.get(i));
+            if (node != -1)
+                stack.add(node);
+        }
+        
+        while (stack.size() > 0) {
+            int node = stack.removeLast();
+            if (marked.get(graph.getID(node)))
+                continue;
+            marked.set(graph.getID(node));
+            for (int k = 0; k < graph.getChildCount(node); k++) {
+                stack.add(graph.getChild(node, k));
+            }
+        }
+    }
+    
+    
+    // The ancestors of a class, each one packed with its distance as (ID << 32 | distance), sorted by ID. An unknown
+    // class has no ancestors
+    private static long[] toAncestry(ClassAncestry closure, int id) {
+        int node = closure.getGraph().getNode(id);
+        if (node == -1)
+            return new long[0];
+        
+        int[] ancestors = closure.getAncestors(node);
+        int[] distances = closure.getDistances(node);
+        long[] result = new long[ancestors.length];
+        for (int i = 0; i < ancestors.length; i++) {
+            result[i] = (long) closure.getGraph().getID(ancestors[i]) << 32 | distances[i];
+        }
+        Arrays.sort(result);
+        return result;
+    }
+    
+    
+    private static void writeStripe(ClassAncestry closure, int stripe, int stripes, AtomicLong counter)
+            throws SQLException {
+        closure = closure.fork();
+        ClassGraph graph = closure.getGraph();
+        
+        try (Connection connection = openConnection();
+                PreparedStatement insertStatement = connection.prepareStatement(""
+                        + "INSERT INTO hierarchy (subclass, superclass, distance) "
+                        + "VALUES (?, ?, ?)")) {
+            int pending = 0;
+            for (int node = stripe; node < graph.size(); node += stripes) {
+                int[] ancestors = closure.getAncestors(node);
+                int[] distances = closure.getDistances(node);
+                
+                insertStatement.setInt(1, graph.getID(node));
+                for (int i = 0; i < ancestors.length; i++) {
+                    insertStatement.setInt(2, graph.getID(ancestors[i]));
+                    insertStatement.setInt(3, distances[i]);
+                    insertStatement.addBatch();
+                    
+                    pending++;
+                    if (pending == BATCH_SIZE) {
+                        insertStatement.executeBatch();
+                        pending = 0;
+                        
+                        // Other threads add their leftovers at the end, so the count is not always a multiple of
+                        // the batch size
+                        long written = counter.addAndGet(BATCH_SIZE);
+                        if (written / 100000 != (written - BATCH_SIZE) / 100000)
+                            System.out.println("... " + written + " relations written by now ...");
+                    }
+                }
+            }
+            insertStatement.executeBatch();
+            counter.addAndGet(pending);
+        }
+    }
     
+    private int threads = Runtime.getRuntime().availableProcessors();
+    
+    // Whether extract() stores the closure as per-class bitmaps instead of one row per relation, or only stores the
+    // direct relations and leaves the closure to be found on demand; and which of these the database currently holds
+    private boolean bitmapStorage;
+    private boolean directStorage;
+    private boolean bitmapLayout;
+    private boolean directLayout;
+    
+    // The most memory, in bytes, kept by the searches of the closure when only the direct relations are stored
+    private long cacheBudget = 64L << 20;
+    
+    // The most memory, in bytes, that the closure may take when it is computed in memory (0 for no limit). Above it,
+    // the closure is found class by class as it is written
+    private long memoryBudget;
+    
+    // Whether extract() updates the stored closure in place, touching only the rows that changed, when it can
+    private boolean incremental;
+    
+    // Whether extract() collapses equivalent classes and cycles into one class each, and the groups of classes that
+    // were collapsed in the stored hierarchy (null if none), with the version of the hierarchy they were read from
+    private boolean condense;
+    private ClassComponents components;
+    private String componentsVersion;
+    
+    // Whether extract() drops the asserted subclass relations that are implied by others before computing the closure.
+    // The stored distances are then the shortest paths in the reduced graph, which can be longer than in the asserted
+    // one
+    private boolean transitiveReduction;
+    
+    private PreparedStatement getDepthStatement;
+    private PreparedStatement getMinDepthStatement;
     private PreparedStatement getMaxDepthStatement;
+    private PreparedStatement getLeafCountStatement;
     private PreparedStatement selectAncestrySizeStatement;
     private PreparedStatement selectAncestryStatement;
     private PreparedStatement selectDescendantsSizeStatement;
     private PreparedStatement selectDescendantsStatement;
+    private PreparedStatement selectChildrenStatement;
+    private PreparedStatement selectParentsStatement;
     private final SQLCoreUtils utils;
     
+    // The reachability index, loaded on first use
+    private HierarchyLabels labels;
+    
+    // When the in-memory option is set, the whole hierarchy is kept in memory and queries do not go to the database.
+    // The copies are loaded on the first query after prepare(), when the options are known; until then, the version
+    // of the hierarchy they must be loaded from is pending
+    private boolean inMemory;
+    private HierarchyIndex index;
+    private ClassStats stats;
+    private volatile String pendingVersion;
+    
     
     public HierarchyExtractor() throws SQLException {
         utils = getExtractor(SQLCoreUtils.class);
     }
     
     
-    @SuppressWarnings("resource")
-    @Override
-    protected void extract(Set<OWLOntology> ontologies) throws SQLException {
-        // TODO Do we want to respect the equivalences between named classes of the original OWL and put them into the
-        // hierarchy as well??
+    // The closure of the graph, computed in memory or, when only the direct relations are stored, found on demand
+    private ClassAncestry computeAncestry(ClassGraph graph) {
+        if (directStorage)
+            return new LazyClosure(graph, cacheBudget);
+        
+        if (memoryBudget > 0) {
+            long estimate = estimateClosureBytes(graph);
+            if (estimate > memoryBudget) {
+                System.out.println("The closure would take about " + (estimate >> 20) + " MB of memory; "
+                        + "it will be found class by class instead");
+                return new LazyClosure(graph, cacheBudget);
+            }
+        }
+        
+        HierarchyClosure result = new HierarchyClosure(graph, threads);
+        System.out.println(result.size() + " relations in the transitive closure");
+        return result;
+    }
+    
+    
+    // The common ancestors of two classes, sorted, in terms of the classes stored in the hierarchy
+    private int[] commonAncestors(int id, int otherID) throws SQLException {
+        loadPending();
+        if (index != null)
+            return index.getCommonAncestorIDs(representative(id), representative(otherID));
+        
+        int[] ancestors = selectIDs(selectAncestryStatement, representative(id));
+        int[] otherAncestors = selectIDs(selectAncestryStatement, representative(otherID));
+        
+        IntList result = new IntList();
+        int i = 0;
+        int j = 0;
+        while (i < ancestors.length && j < otherAncestors.length) {
+            if (ancestors[i] < otherAncestors[j])
+                i++;
+            else if (ancestors[i] > otherAncestors[j])
+                j++;
+            else {
+                result.add(ancestors[i]);
+                i++;
+                j++;
+            }
+        }
+        return result.toArray();
+    }
+    
+    
+    // Estimates the memory the closure of the graph would take in memory from the ancestors of a sample of its classes
+    private long estimateClosureBytes(ClassGraph graph) {
+        if (graph.size() == 0)
+            return 0;
+        
+        LazyClosure search = new LazyClosure(graph, 0);
+        Random random = new Random(ESTIMATE_SEED);
+        int samples = Math.min(ESTIMATE_SAMPLES, graph.size());
+        long ancestors = 0;
+        for (int i = 0; i < samples; i++) {
+            ancestors += search.getAncestors(random.nextInt(graph.size())).length;
+        }
+        
+        // Each relation takes an ancestor and a distance, and each class two arrays and its share of the inverse
+        double relations = (double) ancestors / samples * graph.size();
+        return (long) (relations * 12 + graph.size() * 48L);
+    }
+    
+    
+    // Adds the classes equivalent to the given ones, which are not stored in a condensed hierarchy
+    private int[] expand(int[] ids) {
+        return components == null ? ids : components.expand(ids);
+    }
+    
+    
+    private ClassComponents loadComponents() throws SQLException {
+        IntList classes = new IntList();
+        IntList representatives = new IntList();
+        try (Statement statement = getConnection().createStatement();
+                ResultSet resultSet = statement.executeQuery(""
+                        + "SELECT class, representative "
+                        + "FROM class_representatives")) {
+            while (resultSet.next()) {
+                classes.add(resultSet.getInt(1));
+                representatives.add(resultSet.getInt(2));
+            }
+        }
+        return new ClassComponents(classes, representatives);
+    }
+    
+    
+    // Reads the direct relations between classes from whichever layout the hierarchy is stored in
+    private ClassGraph loadGraph() throws SQLException {
+        IntList classes = new IntList();
+        IntList subclasses = new IntList();
+        IntList superclasses = new IntList();
+        
+        try (Statement statement = getConnection().createStatement()) {
+            if (directLayout) {
+                // The classes in a condensed hierarchy are only the representatives
+                try (ResultSet resultSet = statement.executeQuery("SELECT class FROM class_stats")) {
+                    while (resultSet.next()) {
+                        if (representative(resultSet.getInt(1)) == resultSet.getInt(1))
+                            classes.add(resultSet.getInt(1));
+                    }
+                }
+                try (ResultSet resultSet = statement.executeQuery(""
+                        + "SELECT subclass, superclass "
+                        + "FROM direct_hierarchy")) {
+                    while (resultSet.next()) {
+                        subclasses.add(resultSet.getInt(1));
+                        superclasses.add(resultSet.getInt(2));
+                    }
+                }
+            }
+            else if (bitmapLayout) {
+                try (ResultSet resultSet = statement.executeQuery("SELECT class, parents FROM hierarchy_bitmaps")) {
+                    while (resultSet.next()) {
+                        classes.add(resultSet.getInt(1));
+                        for (int parent : IDBitmap.decode(resultSet.getBytes(2))) {
+                            subclasses.add(resultSet.getInt(1));
+                            superclasses.add(parent);
+                        }
+                    }
+                }
+            }
+            else {
+                // Each class is related to itself with distance 0, and to its parents with distance 1
+                try (ResultSet resultSet = statement.executeQuery(""
+                        + "SELECT subclass, superclass, distance "
+                        + "FROM hierarchy "
+                        + "WHERE distance <= 1")) {
+                    while (resultSet.next()) {
+                        if (resultSet.getInt(3) == 0)
+                            classes.add(resultSet.getInt(1));
+                        else {
+                            subclasses.add(resultSet.getInt(1));
+                            superclasses.add(resultSet.getInt(2));
+                        }
+                    }
+                }
+            }
+        }
+        
+        return new ClassGraph(classes.toArray(), subclasses, superclasses);
+    }
+    
+    
+    private HierarchyIndex loadIndex(String version) throws SQLException {
+        // Only the direct relations are read; the closure is faster to compute again than to transfer, or is not
+        // computed at all if it is not stored or does not fit in the memory budget
+        ClassAncestry closure;
+        if (directLayout)
+            closure = new LazyClosure(loadGraph(), cacheBudget);
+        else
+            closure = computeAncestry(loadGraph());
+        System.out.println("Loaded the hierarchy of " + closure.getGraph().size() + " classes into memory");
+        return new HierarchyIndex(closure, version);
+    }
+    
+    
+    private HierarchyLabels loadLabels() throws SQLException {
+        ClassGraph graph = loadGraph();
+        
+        IntList labelClasses = new IntList();
+        IntList labelings = new IntList();
+        IntList lows = new IntList();
+        IntList highs = new IntList();
+        int labelingCount = 0;
+        
+        try (Statement statement = getConnection().createStatement();
+                ResultSet resultSet = statement.executeQuery(""
+                        + "SELECT class, labeling, low, high "
+                        + "FROM hierarchy_labels")) {
+            while (resultSet.next()) {
+                labelClasses.add(resultSet.getInt(1));
+                labelings.add(resultSet.getInt(2));
+                lows.add(resultSet.getInt(3));
+                highs.add(resultSet.getInt(4));
+                labelingCount = Math.max(labelingCount, resultSet.getInt(2) + 1);
+            }
+        }
+        
+        int[][] low = new int[labelingCount][graph.size()];
+        int[][] high = new int[labelingCount][graph.size()];
+        for (int i = 0; i < labelClasses.size(); i++) {
+            int node = graph.getNode(labelClasses.get(i));
+            if (node == -1)
+                continue;
+            low[labelings.get(i)][node] = lows.get(i);
+            high[labelings.get(i)][node] = highs.get(i);
+        }
+        
+        return new HierarchyLabels(graph, low, high);
+    }
+    
+    
+    // Loads the in-memory copies of the hierarchy if prepare() left them pending
+    private void loadPending() throws SQLException {
+        if (pendingVersion == null)
+            return;
+        
+        synchronized (this) {
+            if (pendingVersion != null) {
+                index = loadIndex(pendingVersion);
+                stats = inMemory ? loadStats() : null;
+                pendingVersion = null;
+            }
+        }
+    }
+    
+    
+    private ClassStats loadStats() throws SQLException {
+        IntList ids = new IntList();
+        IntList ancestorCounts = new IntList();
+        IntList descendantCounts = new IntList();
+        IntList minDepths = new IntList();
+        IntList maxDepths = new IntList();
+        IntList leafCounts = new IntList();
+        
+        try (Statement statement = getConnection().createStatement();
+                ResultSet resultSet = statement.executeQuery(""
+                        + "SELECT class, ancestors, descendants, min_depth, max_depth, leaves "
+                        + "FROM class_stats")) {
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt(1));
+                ancestorCounts.add(resultSet.getInt(2));
+                descendantCounts.add(resultSet.getInt(3));
+                minDepths.add(resultSet.getInt(4));
+                maxDepths.add(resultSet.getInt(5));
+                leafCounts.add(resultSet.getInt(6));
+            }
+        }
+        
+        return new ClassStats(ids.toArray(), ancestorCounts.toArray(), descendantCounts.toArray(),
+                minDepths.toArray(), maxDepths.toArray(), leafCounts.toArray());
+    }
+    
+    
+    // The class that stands for the given one in the stored hierarchy
+    private int representative(int id) {
+        return components == null ? id : components.getRepresentative(id);
+    }
+    
+    
+    // Runs one of the statements that select related classes, in whichever layout the hierarchy is stored. The
+    // result is sorted.
+    private int[] selectIDs(PreparedStatement statement, int id) throws SQLException {
+        statement.setInt(1, id);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (bitmapLayout)
+                return resultSet.next() ? IDBitmap.decode(resultSet.getBytes(1)) : new int[0];
+            
+            IntList ids = new IntList();
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt(1));
+            }
+            int[] result = ids.toArray();
+            Arrays.sort(result);
+            return result;
+        }
+    }
+    
+    
+    // Runs one of the statements that select a column of class_stats, returning the given value if there is no row
+    private int selectStat(PreparedStatement statement, int id, int missing) throws SQLException {
+        statement.setInt(1, id);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (resultSet.next())
+                return resultSet.getInt(1);
+        }
+        return missing;
+    }
+    
+    
+    private HashSet<OWLClass> toClasses(int[] ids) throws SQLException {
+        HashSet<OWLClass> result = new HashSet<>();
+        for (OWLEntity entity : utils.getEntities(ids)) {
+            if (entity != null)
+                result.add(entity.asOWLClass());
+        }
+        return result;
+    }
+    
+    
+    // Brings the stored closure up to date with the given one. The previous closure is computed again from the stored
+    // direct relations, and only the rows of the affected classes are compared and changed
+    private void updateTable(ClassAncestry closure) throws SQLException {
+        System.out.println("Reading the stored direct relations");
+        ClassAncestry oldClosure = computeAncestry(loadGraph());
+        BitSet affected = findAffected(oldClosure.getGraph(), closure.getGraph());
+        System.out.println(affected.cardinality() + " classes affected by the changes");
+        if (affected.cardinality() > INCREMENTAL_LIMIT * closure.getGraph().size()) {
+            System.out.println("Too many classes affected; writing the whole closure instead");
+            writeTable(closure);
+            return;
+        }
         
         Connection connection = getConnection();
+        try (PreparedStatement deleteStatement = connection.prepareStatement(""
+                + "DELETE FROM hierarchy "
+                + "WHERE subclass = ? AND superclass = ?");
+                PreparedStatement insertStatement = connection.prepareStatement(""
+                        + "INSERT INTO hierarchy (subclass, superclass, distance) "
+                        + "VALUES (?, ?, ?)");
+                PreparedStatement updateStatement = connection.prepareStatement(""
+                        + "UPDATE hierarchy "
+                        + "SET distance = ? "
+                        + "WHERE subclass = ? AND superclass = ?")) {
+            int deleted = 0;
+            int inserted = 0;
+            int updated = 0;
+            
+            for (int id = affected.nextSetBit(0); id != -1; id = affected.nextSetBit(id + 1)) {
+                long[] before = toAncestry(oldClosure, id);
+                long[] after = toAncestry(closure, id);
+                
+                // Both are sorted by ancestor, so a merge finds what was removed, added and moved
+                int i = 0;
+                int j = 0;
+                while (i < before.length || j < after.length) {
+                    long beforeAncestor = i < before.length ? before[i] >>> 32 : Long.MAX_VALUE;
+                    long afterAncestor = j < after.length ? after[j] >>> 32 : Long.MAX_VALUE;
+                    
+                    if (beforeAncestor < afterAncestor) {
+                        deleteStatement.setInt(1, id);
+                        deleteStatement.setInt(2, (int) beforeAncestor);
+                        deleteStatement.addBatch();
+                        if (++deleted % BATCH_SIZE == 0)
+                            deleteStatement.executeBatch();
+                        i++;
+                    }
+                    else if (beforeAncestor > afterAncestor) {
+                        insertStatement.setInt(1, id);
+                        insertStatement.setInt(2, (int) afterAncestor);
+                        insertStatement.setInt(3, (int) after[j]);
+                        insertStatement.addBatch();
+                        if (++inserted % BATCH_SIZE == 0)
+                            insertStatement.executeBatch();
+                        j++;
+                    }
+                    else {
+                        if ((int) before[i] != (int) after[j]) {
+                            updateStatement.setInt(1, (int) after[j]);
+                            updateStatement.setInt(2, id);
+                            updateStatement.setInt(3, (int) afterAncestor);
+                            updateStatement.addBatch();
+                            if (++updated % BATCH_SIZE == 0)
+                                updateStatement.executeBatch();
+                        }
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            
+            deleteStatement.executeBatch();
+            insertStatement.executeBatch();
+            updateStatement.executeBatch();
+            System.out.println(deleted + " relations deleted, " + inserted + " inserted and " + updated + " updated");
+        }
+    }
+    
+    
+    @SuppressWarnings("resource")
+    private void writeBitmaps(ClassAncestry closure) throws SQLException {
+        Statement statement = getConnection().createStatement();
+        statement.execute("DROP TABLE IF EXISTS hierarchy");
+        statement.execute("DROP TABLE IF EXISTS hierarchy_bitmaps");
+        statement.execute("CREATE TABLE hierarchy_bitmaps ("
+                + "class INT PRIMARY KEY,"
+                + "parents MEDIUMBLOB,"
+                + "children MEDIUMBLOB,"
+                + "ancestors MEDIUMBLOB,"
+                + "descendants MEDIUMBLOB)");
+        statement.close();
+        
+        ClassGraph graph = closure.getGraph();
+        try (PreparedStatement insertStatement = getConnection().prepareStatement(""
+                + "INSERT INTO hierarchy_bitmaps "
+                + "(class, parents, children, ancestors, descendants) "
+                + "VALUES (?, ?, ?, ?, ?)")) {
+            for (int node = 0; node < graph.size(); node++) {
+                insertStatement.setInt(1, graph.getID(node));
+                insertStatement.setBytes(2, IDBitmap.encode(graph.getParentIDs(node)));
+                insertStatement.setBytes(3, IDBitmap.encode(graph.getChildIDs(node)));
+                insertStatement.setBytes(4, IDBitmap.encode(graph.getIDs(closure.getAncestors(node))));
+                insertStatement.setBytes(5, IDBitmap.encode(graph.getIDs(closure.getDescendants(node))));
+                insertStatement.addBatch();
+                
+                if ((node + 1) % BATCH_SIZE == 0) {
+                    insertStatement.executeBatch();
+                    System.out.println("... bitmaps of " + (node + 1) + " classes written by now ...");
+                }
+            }
+            insertStatement.executeBatch();
+        }
+    }
+    
+    
+    private void writeClosure(final ClassAncestry closure) throws SQLException {
+        // Each thread writes the relations of every n-th class through a connection of its own, so that both building
+        // the batches and sending them to the server happen in parallel
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final AtomicLong counter = new AtomicLong();
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final int stripe = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws SQLException {
+                        writeStripe(closure, stripe, threads, counter);
+                        return null;
+                    }
+                }));
+            }
+            
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            throw new SQLException("Interrupted while writing the hierarchy", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException)
+                throw (SQLException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    
+    private void writeDirect(ClassGraph graph) throws SQLException {
+        Statement statement = getConnection().createStatement();
+        statement.execute("DROP TABLE IF EXISTS direct_hierarchy");
+        statement.execute("CREATE TABLE direct_hierarchy ("
+                + "subclass INT,"
+                + "superclass INT,"
+                + "PRIMARY KEY (subclass, superclass),"
+                + "INDEX (superclass))");
+        statement.close();
+        
+        try (PreparedStatement insertStatement = getConnection().prepareStatement(""
+                + "INSERT INTO direct_hierarchy (subclass, superclass) "
+                + "VALUES (?, ?)")) {
+            int counter = 0;
+            for (int node = 0; node < graph.size(); node++) {
+                insertStatement.setInt(1, graph.getID(node));
+                for (int k = 0; k < graph.getParentCount(node); k++) {
+                    insertStatement.setInt(2, graph.getID(graph.getParent(node, k)));
+                    insertStatement.addBatch();
+                    
+                    counter++;
+                    if (counter % BATCH_SIZE == 0)
+                        insertStatement.executeBatch();
+                }
+            }
+            insertStatement.executeBatch();
+        }
+    }
+    
+    
+    private void writeLabels(HierarchyLabels labels) throws SQLException {
+        ClassGraph graph = labels.getGraph();
+        
+        Statement statement = getConnection().createStatement();
+        statement.execute("DROP TABLE IF EXISTS hierarchy_labels");
+        statement.execute("CREATE TABLE hierarchy_labels ("
+                + "class INT,"
+                + "labeling INT,"
+                + "low INT,"
+                + "high INT,"
+                + "PRIMARY KEY (class, labeling))");
+        statement.close();
+        
+        try (PreparedStatement insertStatement = getConnection().prepareStatement(""
+                + "INSERT INTO hierarchy_labels (class, labeling, low, high) "
+                + "VALUES (?, ?, ?, ?)")) {
+            int counter = 0;
+            for (int node = 0; node < graph.size(); node++) {
+                insertStatement.setInt(1, graph.getID(node));
+                for (int labeling = 0; labeling < labels.getLabelingCount(); labeling++) {
+                    insertStatement.setInt(2, labeling);
+                    insertStatement.setInt(3, labels.getLow(labeling, node));
+                    insertStatement.setInt(4, labels.getHigh(labeling, node));
+                    insertStatement.addBatch();
+                    
+                    counter++;
+                    if (counter % BATCH_SIZE == 0)
+                        insertStatement.executeBatch();
+                }
+            }
+            insertStatement.executeBatch();
+        }
+    }
+    
+    
+    @SuppressWarnings("resource")
+    private void writeComponents(ClassComponents components) throws SQLException {
+        Statement statement = getConnection().createStatement();
+        statement.execute("DROP TABLE IF EXISTS class_representatives");
+        if (components == null) {
+            statement.close();
+            return;
+        }
+        statement.execute("CREATE TABLE class_representatives ("
+                + "class INT PRIMARY KEY,"
+                + "representative INT,"
+                + "INDEX (representative))");
+        statement.close();
         
-        Statement statement = connection.createStatement();
+        try (PreparedStatement insertStatement = getConnection().prepareStatement(""
+                + "INSERT INTO class_representatives (class, representative) "
+                + "VALUES (?, ?)")) {
+            for (int i = 0; i < components.size(); i++) {
+                insertStatement.setInt(1, components.getClassAt(i));
+                insertStatement.setInt(2, components.getRepresentativeAt(i));
+                insertStatement.addBatch();
+                
+                if ((i + 1) % BATCH_SIZE == 0)
+                    insertStatement.executeBatch();
+            }
+            insertStatement.executeBatch();
+        }
+    }
+    
+    
+    private void writeStats(ClassStats stats) throws SQLException {
+        Statement statement = getConnection().createStatement();
+        statement.execute("DROP TABLE IF EXISTS class_stats");
+        statement.execute("CREATE TABLE class_stats ("
+                + "class INT PRIMARY KEY,"
+                + "ancestors INT,"
+                + "descendants INT,"
+                + "min_depth INT,"
+                + "max_depth INT,"
+                + "leaves INT)");
+        statement.close();
+        
+        try (PreparedStatement insertStatement = getConnection().prepareStatement(""
+                + "INSERT INTO class_stats (class, ancestors, descendants, min_depth, max_depth, leaves) "
+                + "VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int row = 0; row < stats.size(); row++) {
+                insertStatement.setInt(1, stats.getID(row));
+                insertStatement.setInt(2, stats.getAncestorCount(row));
+                insertStatement.setInt(3, stats.getDescendantCount(row));
+                insertStatement.setInt(4, stats.getMinDepth(row));
+                insertStatement.setInt(5, stats.getMaxDepth(row));
+                insertStatement.setInt(6, stats.getLeafCount(row));
+                insertStatement.addBatch();
+                
+                if ((row + 1) % BATCH_SIZE == 0)
+                    insertStatement.executeBatch();
+            }
+            insertStatement.executeBatch();
+        }
+    }
+    
+    
+    @SuppressWarnings("resource")
+    private void writeTable(ClassAncestry closure) throws SQLException {
+        // The indices are only created after the rows are inserted, which is much faster than updating them row by row
+        Statement statement = getConnection().createStatement();
+        statement.execute("DROP TABLE IF EXISTS hierarchy_bitmaps");
         statement.execute("DROP TABLE IF EXISTS hierarchy");
         statement.execute("CREATE TABLE hierarchy ("
                 + "subclass INT,"
                 + "superclass INT,"
-                + "distance INT,"
-                + "INDEX (subclass),"
-                + "INDEX (superclass),"
-                + "INDEX (distance),"
-                + "UNIQUE (subclass, superclass))");
+                + "distance INT)");
         statement.close();
         
-        PreparedStatement insertStatement = connection.prepareStatement(""
-                + "INSERT IGNORE INTO hierarchy (subclass, superclass, distance) "
-                + "VALUES (?, ?, ?)");
+        writeClosure(closure);
         
+        System.out.println("Indexing the hierarchy");
+        statement = getConnection().createStatement();
+        statement.execute("ALTER TABLE hierarchy "
+                + "ADD INDEX (subclass),"
+                + "ADD INDEX (superclass),"
+                + "ADD INDEX (distance),"
+                + "ADD UNIQUE (subclass, superclass)");
+        statement.close();
+    }
+    
+    
+    @Override
+    protected void extract(Set<OWLOntology> ontologies) throws SQLException {
         System.out.println("Finding all the classes");
         
-        // Start by getting a reference to all the classes
-        HashSet<OWLClass> noSuperclass = utils.getAllEntities(EntityType.CLASS);
-        
-        // And by saying that everything is a subclass of itself (with distance 0)
-        insertStatement.setInt(3, 0); // The distance will be 0 here
-        for (OWLClass owlClass : noSuperclass) {
-            int id = utils.getID(owlClass);
-            insertStatement.setInt(1, id);
-            insertStatement.setInt(2, id);
-            insertStatement.addBatch();
+        // Stream all the classes, keeping only their IDs in memory
+        IntList classes = new IntList();
+        try (EntityCursor<OWLClass> cursor = utils.iterateEntities(EntityType.CLASS)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                classes.add(cursor.getID());
+            }
         }
-        insertStatement.executeBatch();
         
-        // We now go through each subclassOf axiom and populate the first part of the hierarchy
+        // We now go through each subclassOf axiom and collect the direct class-subclass relations
         System.out.println("Finding direct class-subclass relations");
         int counter = 0;
         
-        insertStatement.setInt(3, 1); // The distance will be 1 for all direct axioms
+        // The classes found to have a superclass, by ID
+        BitSet hasSuperclass = new BitSet();
+        IntList subclasses = new IntList();
+        IntList superclasses = new IntList();
+        
         for (OWLOntology ontology : ontologies) {
             Set<OWLSubClassOfAxiom> axioms = ontology.getAxioms(AxiomType.SUBCLASS_OF, true);
             for (OWLSubClassOfAxiom axiom : axioms) {
@@ -91,62 +837,114 @@ public final class HierarchyExtractor extends OWLExtractor {
                 if (subClass.isAnonymous() || superClass.isAnonymous())
                     continue;
                 
-                OWLClass subOWLClass = subClass.asOWLClass();
-                OWLClass superOWLClass = superClass.asOWLClass();
-                counter++;
-                
-                // We found a class with a superclass, so remove it from the set of noSuperclass classes
-                noSuperclass.remove(subOWLClass);
+                int subClassID = utils.getID(subClass.asOWLClass());
+                int superClassID = utils.getID(superClass.asOWLClass());
+                if (subClassID == -1 || superClassID == -1)
+                    continue;
                 
-                // Add this information to the database
-                int subClassID = utils.getID(subOWLClass);
-                int superClassID = utils.getID(superOWLClass);
-                insertStatement.setInt(1, subClassID);
-                insertStatement.setInt(2, superClassID);
-                insertStatement.addBatch();
+                hasSuperclass.set(subClassID);
+                subclasses.add(subClassID);
+                superclasses.add(superClassID);
                 
+                counter++;
                 if (counter % 1000 == 0)
                     System.out.println("... found " + counter + " direct relations by now ...");
             }
         }
         
         // Those classes that do not have a superclass should be now processed so that owl:Thing is their superclass
-        // This includes owl:Thing, which is part of the noSuperclass set
-        insertStatement.setInt(2, utils.getID(OWL_THING)); // Set the superclass to 1
-        insertStatement.setInt(3, 1); // Set the distance to 1
-        for (OWLClass owlClass : noSuperclass) {
-            // Store this information on memory
-            counter++;
+        int owlThingID = utils.getID(OWL_THING);
+        for (int i = 0; i < classes.size(); i++) {
+            int subClassID = classes.get(i);
+            if (hasSuperclass.get(subClassID) || subClassID == owlThingID)
+                continue;
             
-            // Add this information to the database
-            int subClassID = utils.getID(owlClass);
-            insertStatement.setInt(1, subClassID);
-            insertStatement.addBatch();
+            subclasses.add(subClassID);
+            superclasses.add(owlThingID);
+            counter++;
         }
         System.out.println(counter + " direct relations");
         
-        insertStatement.executeBatch();
-        insertStatement.close();
+        // Equivalent named classes are subclasses of each other. They are only taken into account when condensing
+        // the hierarchy, where they end up collapsed together with the classes that form cycles
+        if (condense) {
+            for (OWLOntology ontology : ontologies) {
+                for (OWLEquivalentClassesAxiom axiom : ontology.getAxioms(AxiomType.EQUIVALENT_CLASSES, true)) {
+                    int previousID = -1;
+                    for (OWLClass owlClass : axiom.getNamedClasses()) {
+                        int id = utils.getID(owlClass);
+                        if (id == -1)
+                            continue;
+                        if (previousID != -1) {
+                            subclasses.add(id);
+                            superclasses.add(previousID);
+                            subclasses.add(previousID);
+                            superclasses.add(id);
+                        }
+                        previousID = id;
+                    }
+                }
+            }
+        }
+        
+        // The closure is computed in memory, and each relation is then written exactly once
+        System.out.println("Computing the transitive closure");
+        ClassGraph graph = new ClassGraph(classes.toArray(), subclasses, superclasses);
+        System.out.println(graph.getEdgeCount() + " distinct direct relations between " + graph.size() + " classes");
         
-        PreparedStatement newInsertDistance = connection.prepareStatement(""
-                + "INSERT IGNORE INTO hierarchy (subclass, superclass, distance)"
-                + "  SELECT h1.subclass, h2.superclass, h1.distance + 1"
-                + "  FROM hierarchy AS h1, hierarchy AS h2"
-                + "  WHERE h1.superclass = h2.subclass AND"
-                + "        h1.distance = ? AND"
-                + "        h2.distance = 1");
+        ClassComponents classComponents = null;
+        if (condense) {
+            classComponents = ClassComponents.compute(graph);
+            graph = classComponents.condense(graph);
+            System.out.println(classComponents.size() + " classes collapsed into " + graph.size() + " representatives");
+        }
         
-        int distance = 1;
-        while (true) {
-            newInsertDistance.setInt(1, distance);
-            int newRows = newInsertDistance.executeUpdate();
-            System.out.println(newRows + " relations with distance = " + (distance + 1));
-            if (newRows == 0)
-                break;
-            distance++;
+        // The implied relations are found with searches over the direct relations, so the closure is only computed
+        // once, on the reduced graph
+        if (transitiveReduction) {
+            graph = graph.getTransitiveReduction();
+            System.out.println(graph.getEdgeCount() + " direct relations left after the transitive reduction");
         }
         
-        newInsertDistance.close();
+        ClassAncestry closure = computeAncestry(graph);
+        
+        // Storing only the direct relations means dropping any previous closure. The bitmaps are always rewritten;
+        // the table is updated in place if it is already there
+        if (directStorage) {
+            Statement statement = getConnection().createStatement();
+            statement.execute("DROP TABLE IF EXISTS hierarchy");
+            statement.execute("DROP TABLE IF EXISTS hierarchy_bitmaps");
+            statement.close();
+        }
+        else if (bitmapStorage)
+            writeBitmaps(closure);
+        else if (incremental && !bitmapLayout && !directLayout && tableExists("hierarchy"))
+            updateTable(closure);
+        else
+            writeTable(closure);
+        
+        // The direct relations on their own, which is all that navigating the hierarchy one step at a time needs
+        writeDirect(graph);
+        
+        // Finally, the reachability index that answers isSubclassOf without going through the table
+        System.out.println("Labeling the hierarchy for reachability queries");
+        writeLabels(HierarchyLabels.compute(closure, LABELINGS, LABELS_SEED));
+        
+        // And the statistics of each class, which answer the counting queries with a single lookup
+        System.out.println("Computing the statistics of each class");
+        ClassStats classStats = ClassStats.compute(closure, classComponents);
+        writeStats(classStats);
+        writeComponents(classComponents);
+        
+        // The closure we have is exactly what the in-memory copies need, so there is no need to read it back. Without a
+        // stored closure, the queries always go through the index
+        String version = Long.toString(System.currentTimeMillis());
+        utils.setExtra(VERSION_EXTRA, version);
+        index = inMemory || directStorage ? new HierarchyIndex(closure, version) : null;
+        stats = inMemory ? classStats : null;
+        pendingVersion = null;
+        components = classComponents;
+        componentsVersion = version;
     }
     
     
@@ -154,46 +952,263 @@ public final class HierarchyExtractor extends OWLExtractor {
     protected void prepare() throws SQLException {
         Connection connection = getConnection();
         
-        selectAncestryStatement = connection.prepareStatement(""
-                + "SELECT o_superclass.iri "
-                + "FROM hierarchy "
-                + "JOIN owl_objects AS o_subclass   ON o_subclass.id   = hierarchy.subclass "
-                + "JOIN owl_objects AS o_superclass ON o_superclass.id = hierarchy.superclass "
-                + "WHERE o_subclass.id = ?");
-        selectAncestrySizeStatement = connection.prepareStatement(""
-                + "SELECT COUNT(*) "
-                + "FROM hierarchy "
-                + "JOIN owl_objects AS o_subclass   ON o_subclass.id   = hierarchy.subclass "
-                + "JOIN owl_objects AS o_superclass ON o_superclass.id = hierarchy.superclass "
-                + "WHERE o_subclass.id = ?");
-        selectDescendantsStatement = connection.prepareStatement(""
-                + "SELECT o_subclass.iri "
-                + "FROM hierarchy "
-                + "JOIN owl_objects AS o_subclass   ON o_subclass.id   = hierarchy.subclass "
-                + "JOIN owl_objects AS o_superclass ON o_superclass.id = hierarchy.superclass "
-                + "WHERE o_superclass.id = ?");
-        selectDescendantsSizeStatement = connection.prepareStatement(""
-                + "SELECT COUNT(*) "
-                + "FROM hierarchy "
-                + "JOIN owl_objects AS o_subclass   ON o_subclass.id   = hierarchy.subclass "
-                + "JOIN owl_objects AS o_superclass ON o_superclass.id = hierarchy.superclass "
-                + "WHERE o_superclass.id = ?");
-        getMaxDepthStatement = connection.prepareStatement("SELECT MAX(distance) FROM hierarchy");
-        getDepthStatement = connection.prepareStatement("SELECT MAX(distance) FROM hierarchy WHERE subclass = ?");
+        // Entities are resolved through SQLCoreUtils, which knows how their IRIs are stored in owl_objects
+        bitmapLayout = tableExists("hierarchy_bitmaps");
+        directLayout = !bitmapLayout && !tableExists("hierarchy") && tableExists("direct_hierarchy");
+        if (bitmapLayout) {
+            selectAncestryStatement = connection
+                    .prepareStatement("SELECT ancestors FROM hierarchy_bitmaps WHERE class = ?");
+            selectDescendantsStatement = connection
+                    .prepareStatement("SELECT descendants FROM hierarchy_bitmaps WHERE class = ?");
+            selectParentsStatement = connection
+                    .prepareStatement("SELECT parents FROM hierarchy_bitmaps WHERE class = ?");
+            selectChildrenStatement = connection
+                    .prepareStatement("SELECT children FROM hierarchy_bitmaps WHERE class = ?");
+        }
+        else {
+            selectAncestryStatement = connection
+                    .prepareStatement("SELECT superclass FROM hierarchy WHERE subclass = ?");
+            selectDescendantsStatement = connection
+                    .prepareStatement("SELECT subclass FROM hierarchy WHERE superclass = ?");
+            selectParentsStatement = connection
+                    .prepareStatement("SELECT superclass FROM direct_hierarchy WHERE subclass = ?");
+            selectChildrenStatement = connection
+                    .prepareStatement("SELECT subclass FROM direct_hierarchy WHERE superclass = ?");
+        }
+        
+        // The counts are the same in both layouts
+        selectAncestrySizeStatement = connection.prepareStatement("SELECT ancestors FROM class_stats WHERE class = ?");
+        selectDescendantsSizeStatement = connection
+                .prepareStatement("SELECT descendants FROM class_stats WHERE class = ?");
+        getDepthStatement = connection.prepareStatement("SELECT max_depth FROM class_stats WHERE class = ?");
+        getMinDepthStatement = connection.prepareStatement("SELECT min_depth FROM class_stats WHERE class = ?");
+        getMaxDepthStatement = connection.prepareStatement("SELECT MAX(max_depth) FROM class_stats");
+        getLeafCountStatement = connection.prepareStatement("SELECT leaves FROM class_stats WHERE class = ?");
+        
+        labels = null;
+        
+        // The groups of collapsed classes are always kept in memory, as every query goes through them
+        String version = utils.getExtra(VERSION_EXTRA);
+        if (!Objects.equals(componentsVersion, version)) {
+            components = tableExists("class_representatives") ? loadComponents() : null;
+            componentsVersion = version;
+        }
+        
+        // Reload the in-memory copies only if the hierarchy changed since they were loaded. Without a stored closure,
+        // the index is always needed. prepare() may run before the options are processed, so the copies are only
+        // loaded when first used
+        pendingVersion = null;
+        if (!(inMemory || directLayout) || !(bitmapLayout || directLayout || tableExists("hierarchy"))) {
+            index = null;
+            stats = null;
+        }
+        else if (index == null || !Objects.equals(index.getVersion(), version)) {
+            index = null;
+            stats = null;
+            pendingVersion = version;
+        }
     }
     
     
+    @Override
+    protected void processOption(String key, JsonElement element) throws JSONException {
+        if (key.equals("threads")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber())
+                throw new JSONException("must be a number");
+            
+            threads = element.getAsInt();
+            if (threads < 1)
+                throw new JSONException("must be a positive number");
+        }
+        else if (key.equals("condense")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            condense = element.getAsBoolean();
+            if (condense) {
+                for (Class<? extends Extractor> cls : JSONConfig.getExtractorClasses()) {
+                    if (TABLE_READERS.contains(cls))
+                        throw new JSONException("must be false when using " + cls.getName());
+                }
+            }
+        }
+        else if (key.equals("incremental")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            incremental = element.getAsBoolean();
+        }
+        else if (key.equals("transitive_reduction")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            transitiveReduction = element.getAsBoolean();
+        }
+        else if (key.equals("in_memory")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            inMemory = element.getAsBoolean();
+        }
+        else if (key.equals("storage")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString())
+                throw new JSONException("must be a string");
+            
+            String storage = element.getAsString();
+            if (!storage.equals("table") && !storage.equals("bitmaps") && !storage.equals("direct"))
+                throw new JSONException("must be one of \"table\", \"bitmaps\" or \"direct\"");
+            if (!storage.equals("table")) {
+                for (Class<? extends Extractor> cls : JSONConfig.getExtractorClasses()) {
+                    if (TABLE_READERS.contains(cls))
+                        throw new JSONException("must be \"table\" when using " + cls.getName());
+                }
+            }
+            bitmapStorage = storage.equals("bitmaps");
+            directStorage = storage.equals("direct");
+        }
+        else if (key.equals("memory_budget_mb")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber())
+                throw new JSONException("must be a number");
+            
+            memoryBudget = element.getAsLong() << 20;
+            if (memoryBudget < 0)
+                throw new JSONException("must not be negative");
+        }
+        else if (key.equals("cache_budget_mb")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber())
+                throw new JSONException("must be a number");
+            
+            cacheBudget = element.getAsLong() << 20;
+            if (cacheBudget < 0)
+                throw new JSONException("must not be negative");
+        }
+        else {
+            super.processOption(key, element);
+        }
+    }
+    
+    
+    // The common ancestor of two classes with the highest score, by internal ID, or -1 if they have none. The classes
+    // collapsed together in a condensed hierarchy must share their scores, as only their representative is looked at
+    int getBestCommonAncestorID(int id, int otherID, double[] scores) throws SQLException {
+        loadPending();
+        if (index != null)
+            return index.getBestCommonAncestorID(representative(id), representative(otherID), scores);
+        
+        int result = -1;
+        double best = Double.NEGATIVE_INFINITY;
+        for (int ancestor : commonAncestors(id, otherID)) {
+            if (ancestor < scores.length && scores[ancestor] > best) {
+                best = scores[ancestor];
+                result = ancestor;
+            }
+        }
+        return result;
+    }
+    
+    
+    // The length of the longest among the shortest paths from the class to each of its ancestors, or -1 if the class
+    // is unknown
     public int getDepth(OWLClass owlClass) throws SQLException {
-        getDepthStatement.setInt(1, utils.getID(owlClass));
-        try (ResultSet resultSet = getDepthStatement.executeQuery()) {
-            if (resultSet.next())
-                return resultSet.getInt(1);
+        loadPending();
+        int id = utils.getID(owlClass);
+        if (stats != null) {
+            int row = stats.getRow(id);
+            return row == -1 ? -1 : stats.getMaxDepth(row);
         }
-        return -1;
+        return selectStat(getDepthStatement, id, -1);
+    }
+    
+    
+    public HashSet<OWLClass> getCommonAncestors(OWLClass cls, OWLClass other) throws SQLException {
+        return toClasses(getCommonAncestorIDs(utils.getID(cls), utils.getID(other)));
+    }
+    
+    
+    // The same as getCommonAncestors, in terms of internal IDs, sorted
+    public int[] getCommonAncestorIDs(int id, int otherID) throws SQLException {
+        return expand(commonAncestors(id, otherID));
+    }
+    
+    
+    public HashSet<OWLClass> getDirectSubclasses(OWLClass cls) throws SQLException {
+        return toClasses(getDirectSubclassIDs(utils.getID(cls)));
+    }
+    
+    
+    // The same as getDirectSubclasses, in terms of internal IDs, sorted
+    public int[] getDirectSubclassIDs(int id) throws SQLException {
+        loadPending();
+        if (index != null)
+            return expand(index.getChildIDs(representative(id)));
+        return expand(selectIDs(selectChildrenStatement, representative(id)));
+    }
+    
+    
+    public HashSet<OWLClass> getDirectSuperclasses(OWLClass cls) throws SQLException {
+        return toClasses(getDirectSuperclassIDs(utils.getID(cls)));
+    }
+    
+    
+    // The same as getDirectSuperclasses, in terms of internal IDs, sorted
+    public int[] getDirectSuperclassIDs(int id) throws SQLException {
+        loadPending();
+        if (index != null)
+            return expand(index.getParentIDs(representative(id)));
+        return expand(selectIDs(selectParentsStatement, representative(id)));
+    }
+    
+    
+    public HashSet<OWLClass> getEquivalentClasses(OWLClass cls) throws SQLException {
+        return toClasses(getEquivalentClassIDs(utils.getID(cls)));
+    }
+    
+    
+    // The classes collapsed together with the given one (itself included) when the hierarchy was condensed, sorted.
+    // An unknown class has none
+    public int[] getEquivalentClassIDs(int id) {
+        if (id == -1)
+            return new int[0];
+        if (components == null)
+            return new int[] { id };
+        return components.getMembers(components.getRepresentative(id));
+    }
+    
+    
+    public HashSet<OWLClass> getLowestCommonAncestors(OWLClass cls, OWLClass other) throws SQLException {
+        return toClasses(getLowestCommonAncestorIDs(utils.getID(cls), utils.getID(other)));
+    }
+    
+    
+    // The common ancestors of two classes that are not superclasses of any other common ancestor, sorted. Since the
+    // ancestors of a common ancestor are common ancestors as well, these are the ones with no child in common
+    public int[] getLowestCommonAncestorIDs(int id, int otherID) throws SQLException {
+        int[] common = commonAncestors(id, otherID);
+        
+        ClassGraph graph;
+        if (index != null)
+            graph = index.getGraph();
+        else {
+            if (labels == null)
+                labels = loadLabels();
+            graph = labels.getGraph();
+        }
+        
+        IntList result = new IntList();
+        for (int ancestor : common) {
+            int node = graph.getNode(ancestor);
+            boolean lowest = true;
+            for (int k = 0; lowest && node != -1 && k < graph.getChildCount(node); k++) {
+                lowest = Arrays.binarySearch(common, graph.getID(graph.getChild(node, k))) < 0;
+            }
+            if (lowest)
+                result.add(ancestor);
+        }
+        return expand(result.toArray());
     }
     
     
     public int getMaxDepth() throws SQLException {
+        loadPending();
+        if (stats != null)
+            return stats.getMaxDepth();
+        
         try (ResultSet resultSet = getMaxDepthStatement.executeQuery()) {
             resultSet.next();
             return resultSet.getInt(1);
@@ -201,56 +1216,108 @@ public final class HierarchyExtractor extends OWLExtractor {
     }
     
     
+    // The length of the shortest path from the class to a root of the hierarchy, or -1 if the class is unknown
+    public int getMinDepth(OWLClass owlClass) throws SQLException {
+        loadPending();
+        int id = utils.getID(owlClass);
+        if (stats != null) {
+            int row = stats.getRow(id);
+            return row == -1 ? -1 : stats.getMinDepth(row);
+        }
+        return selectStat(getMinDepthStatement, id, -1);
+    }
+    
+    
+    // The number of descendants of the class (itself included) that have no subclasses
+    public int getNumberOfLeafDescendants(OWLClass cls) throws SQLException {
+        loadPending();
+        int id = utils.getID(cls);
+        if (stats != null) {
+            int row = stats.getRow(id);
+            return row == -1 ? 0 : stats.getLeafCount(row);
+        }
+        return selectStat(getLeafCountStatement, id, 0);
+    }
+    
+    
     public int getNumberOfSubclasses(OWLClass cls) throws SQLException {
+        loadPending();
         int id = utils.getID(cls);
-        
-        selectDescendantsSizeStatement.setInt(1, id);
-        try (ResultSet resultSet = selectDescendantsSizeStatement.executeQuery()) {
-            resultSet.next();
-            return resultSet.getInt(1);
+        if (stats != null) {
+            int row = stats.getRow(id);
+            return row == -1 ? 0 : stats.getDescendantCount(row);
         }
+        return selectStat(selectDescendantsSizeStatement, id, 0);
     }
     
     
     public int getNumberOfSuperclasses(OWLClass cls) throws SQLException {
+        loadPending();
         int id = utils.getID(cls);
-        
-        selectAncestrySizeStatement.setInt(1, id);
-        try (ResultSet resultSet = selectAncestrySizeStatement.executeQuery()) {
-            resultSet.next();
-            return resultSet.getInt(1);
+        if (stats != null) {
+            int row = stats.getRow(id);
+            return row == -1 ? 0 : stats.getAncestorCount(row);
         }
+        return selectStat(selectAncestrySizeStatement, id, 0);
+    }
+    
+    
+    // The ID of the class that stands for the given one in the stored hierarchy tables, which is the class itself
+    // unless the hierarchy was condensed
+    public int getRepresentativeID(int id) {
+        return representative(id);
     }
     
     
     public HashSet<OWLClass> getSubclasses(OWLClass cls) throws SQLException {
-        int id = utils.getID(cls);
-        
-        HashSet<OWLClass> result = new HashSet<>();
-        selectDescendantsStatement.setInt(1, id);
-        try (ResultSet resultSet = selectDescendantsStatement.executeQuery()) {
-            while (resultSet.next()) {
-                String iri = resultSet.getString(1);
-                result.add(factory.getOWLClass(IRI.create(iri)));
-            }
-        }
-        
-        return result;
+        return toClasses(getSubclassIDs(utils.getID(cls)));
+    }
+    
+    
+    // The same as getSubclasses, in terms of internal IDs, sorted
+    public int[] getSubclassIDs(int id) throws SQLException {
+        loadPending();
+        if (index != null)
+            return expand(index.getDescendantIDs(representative(id)));
+        return expand(selectIDs(selectDescendantsStatement, representative(id)));
     }
     
     
     public HashSet<OWLClass> getSuperclasses(OWLClass cls) throws SQLException {
-        int id = utils.getID(cls);
+        return toClasses(getSuperclassIDs(utils.getID(cls)));
+    }
+    
+    
+    // The same as getSuperclasses, in terms of internal IDs, sorted
+    public int[] getSuperclassIDs(int id) throws SQLException {
+        loadPending();
+        if (index != null)
+            return expand(index.getAncestorIDs(representative(id)));
+        return expand(selectIDs(selectAncestryStatement, representative(id)));
+    }
+    
+    
+    public boolean isSubclassOf(int subclassID, int superclassID) throws SQLException {
+        loadPending();
+        subclassID = representative(subclassID);
+        superclassID = representative(superclassID);
+        if (index != null)
+            return index.isDescendant(subclassID, superclassID);
         
-        HashSet<OWLClass> result = new HashSet<>();
-        selectAncestryStatement.setInt(1, id);
-        try (ResultSet resultSet = selectAncestryStatement.executeQuery()) {
-            while (resultSet.next()) {
-                String iri = resultSet.getString(1);
-                result.add(factory.getOWLClass(IRI.create(iri)));
-            }
-        }
+        if (labels == null)
+            labels = loadLabels();
         
-        return result;
+        ClassGraph graph = labels.getGraph();
+        int subclassNode = graph.getNode(subclassID);
+        int superclassNode = graph.getNode(superclassID);
+        if (subclassNode == -1 || superclassNode == -1)
+            return false;
+        
+        return labels.isDescendant(subclassNode, superclassNode);
+    }
+    
+    
+    public boolean isSubclassOf(OWLClass subclass, OWLClass superclass) throws SQLException {
+        return isSubclassOf(utils.getID(subclass), utils.getID(superclass));
     }
 }
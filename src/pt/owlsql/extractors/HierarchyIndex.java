@@ -0,0 +1,132 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+
+
+// The whole class hierarchy in memory, to answer the queries of HierarchyExtractor without going to the database. It
+// holds the direct relations (the ClassGraph) and the closure computed from them, and answers in terms of internal IDs.
+final class HierarchyIndex {
+    
+    private static final int[] EMPTY = new int[0];
+    
+    private final ClassAncestry closure;
+    private final ClassGraph graph;
+    private final String version;
+    
+    
+    HierarchyIndex(ClassAncestry closure, String version) {
+        this.closure = closure;
+        this.version = version;
+        graph = closure.getGraph();
+    }
+    
+    
+    int[] getAncestorIDs(int id) {
+        int node = graph.getNode(id);
+        if (node == -1)
+            return EMPTY;
+        return graph.getIDs(closure.getAncestors(node));
+    }
+    
+    
+    // The common ancestor of two classes with the highest score, by ID, or -1 if they have none. The ancestors of both
+    // are sorted by node, and so by ID, and are intersected without copying them
+    int getBestCommonAncestorID(int id, int otherID, double[] scores) {
+        int node = graph.getNode(id);
+        int other = graph.getNode(otherID);
+        if (node == -1 || other == -1)
+            return -1;
+        
+        int[] ancestors = closure.getAncestors(node);
+        int[] otherAncestors = closure.getAncestors(other);
+        int result = -1;
+        double best = Double.NEGATIVE_INFINITY;
+        int i = 0;
+        int j = 0;
+        while (i < ancestors.length && j < otherAncestors.length) {
+            if (ancestors[i] < otherAncestors[j])
+                i++;
+            else if (ancestors[i] > otherAncestors[j])
+                j++;
+            else {
+                int ancestorID = graph.getID(ancestors[i]);
+                if (ancestorID < scores.length && scores[ancestorID] > best) {
+                    best = scores[ancestorID];
+                    result = ancestorID;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    
+    int[] getChildIDs(int id) {
+        int node = graph.getNode(id);
+        if (node == -1)
+            return EMPTY;
+        return graph.getChildIDs(node);
+    }
+    
+    
+    int[] getCommonAncestorIDs(int id, int otherID) {
+        int node = graph.getNode(id);
+        int other = graph.getNode(otherID);
+        if (node == -1 || other == -1)
+            return EMPTY;
+        
+        int[] ancestors = closure.getAncestors(node);
+        int[] otherAncestors = closure.getAncestors(other);
+        IntList result = new IntList();
+        int i = 0;
+        int j = 0;
+        while (i < ancestors.length && j < otherAncestors.length) {
+            if (ancestors[i] < otherAncestors[j])
+                i++;
+            else if (ancestors[i] > otherAncestors[j])
+                j++;
+            else {
+                result.add(graph.getID(ancestors[i]));
+                i++;
+                j++;
+            }
+        }
+        return result.toArray();
+    }
+    
+    
+    int[] getDescendantIDs(int id) {
+        int node = graph.getNode(id);
+        if (node == -1)
+            return EMPTY;
+        return graph.getIDs(closure.getDescendants(node));
+    }
+    
+    
+    ClassGraph getGraph() {
+        return graph;
+    }
+    
+    
+    int[] getParentIDs(int id) {
+        int node = graph.getNode(id);
+        if (node == -1)
+            return EMPTY;
+        return graph.getParentIDs(node);
+    }
+    
+    
+    String getVersion() {
+        return version;
+    }
+    
+    
+    boolean isDescendant(int id, int ancestorID) {
+        int node = graph.getNode(id);
+        int ancestor = graph.getNode(ancestorID);
+        if (node == -1 || ancestor == -1)
+            return false;
+        return Arrays.binarySearch(closure.getAncestors(node), ancestor) >= 0;
+    }
+}
@@ -0,0 +1,235 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+// A reachability index over a ClassGraph, in the style of GRAIL. Each labeling numbers the nodes in the post-order of
+// a randomized depth-first traversal from the roots down, and gives each node the interval [low, high] spanned by the
+// numbers of its descendants (itself included). A descendant's intervals are always nested in its ancestor's, so a
+// single labeling where they are not nested proves that two nodes are unrelated. Only when all labelings are nested do
+// we need to confirm the relation, with a search upwards that skips the nodes whose intervals rule them out.
+final class HierarchyLabels {
+    
+    // The working space of the searches of one thread: a node was visited by the current search if its stamp is the
+    // current one, so nothing needs to be cleared between searches, and the stack of nodes still to visit
+    private static final class Visits {
+        
+        private final int[] stamps;
+        private int stamp;
+        private final IntList stack = new IntList();
+        
+        
+        private Visits(int size) {
+            stamps = new int[size];
+        }
+        
+        
+        // Starts a new search, forgetting all the nodes visited so far
+        private void clear() {
+            stack.clear();
+            stamp++;
+            if (stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+        
+        
+        // Marks the node as visited, returning whether it was not visited before
+        private boolean visit(int node) {
+            if (stamps[node] == stamp)
+                return false;
+            stamps[node] = stamp;
+            return true;
+        }
+    }
+    
+    
+    // Computes the labels of the graph of the given ancestry. The intervals of the classes in the topological order
+    // are found from those of their children, bottom-up; only the classes on or below a cycle, whose descendants are
+    // all on or below a cycle as well, need their ancestors to be looked at
+    static HierarchyLabels compute(ClassAncestry ancestry, int labelings, long seed) {
+        ClassGraph graph = ancestry.getGraph();
+        int size = graph.size();
+        Random random = new Random(seed);
+        
+        int[] order = graph.getTopologicalOrder();
+        boolean[] acyclic = new boolean[size];
+        for (int node : order) {
+            acyclic[node] = true;
+        }
+        
+        int[][] low = new int[labelings][];
+        int[][] high = new int[labelings][];
+        for (int labeling = 0; labeling < labelings; labeling++) {
+            int[] post = traverse(graph, random);
+            low[labeling] = post.clone();
+            high[labeling] = post.clone();
+            
+            for (int node = 0; node < size; node++) {
+                if (acyclic[node])
+                    continue;
+                for (int ancestor : ancestry.getAncestors(node)) {
+                    if (acyclic[ancestor])
+                        continue;
+                    low[labeling][ancestor] = Math.min(low[labeling][ancestor], post[node]);
+                    high[labeling][ancestor] = Math.max(high[labeling][ancestor], post[node]);
+                }
+            }
+            
+            for (int i = order.length - 1; i >= 0; i--) {
+                int node = order[i];
+                for (int k = 0; k < graph.getChildCount(node); k++) {
+                    int child = graph.getChild(node, k);
+                    low[labeling][node] = Math.min(low[labeling][node], low[labeling][child]);
+                    high[labeling][node] = Math.max(high[labeling][node], high[labeling][child]);
+                }
+            }
+        }
+        
+        return new HierarchyLabels(graph, low, high);
+    }
+    
+    
+    private static int randomOffset(ClassGraph graph, int node, Random random) {
+        int count = graph.getChildCount(node);
+        return count == 0 ? 0 : random.nextInt(count);
+    }
+    
+    
+    private static int[] traverse(ClassGraph graph, Random random) {
+        int size = graph.size();
+        int[] post = new int[size];
+        Arrays.fill(post, -1);
+        
+        // The traversal is iterative, as hierarchies can be deeper than the call stack allows. Each node on the stack
+        // visits its children starting at a random offset, which is what makes the labelings differ from each other
+        int[] stack = new int[size];
+        int[] offset = new int[size];
+        int[] visited = new int[size];
+        boolean[] seen = new boolean[size];
+        int counter = 0;
+        
+        // Start from the roots, in random order, and then from whatever is left (classes in cycles without a root)
+        int[] starts = new int[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = starts[i];
+            starts[i] = starts[j];
+            starts[j] = swap;
+        }
+        
+        for (int pass = 0; pass < 2; pass++) {
+            for (int start : starts) {
+                if (seen[start] || (pass == 0 && graph.getParentCount(start) > 0))
+                    continue;
+                
+                int top = 0;
+                stack[0] = start;
+                seen[start] = true;
+                offset[start] = randomOffset(graph, start, random);
+                visited[start] = 0;
+                
+                while (top >= 0) {
+                    int node = stack[top];
+                    int count = graph.getChildCount(node);
+                    if (visited[node] < count) {
+                        int child = graph.getChild(node, (offset[node] + visited[node]) % count);
+                        visited[node]++;
+                        if (!seen[child]) {
+                            seen[child] = true;
+                            offset[child] = randomOffset(graph, child, random);
+                            visited[child] = 0;
+                            stack[++top] = child;
+                        }
+                    }
+                    else {
+                        post[node] = counter++;
+                        top--;
+                    }
+                }
+            }
+        }
+        
+        return post;
+    }
+    
+    private final ClassGraph graph;
+    private final int[][] low;
+    private final int[][] high;
+    
+    private final ThreadLocal<Visits> visits = new ThreadLocal<Visits>() {
+        @Override
+        protected Visits initialValue() {
+            return new Visits(graph.size());
+        }
+    };
+    
+    
+    HierarchyLabels(ClassGraph graph, int[][] low, int[][] high) {
+        this.graph = graph;
+        this.low = low;
+        this.high = high;
+    }
+    
+    
+    // Whether the intervals of the first node are nested in the intervals of the second one
+    private boolean isNested(int node, int ancestor) {
+        for (int labeling = 0; labeling < low.length; labeling++) {
+            if (low[labeling][node] < low[labeling][ancestor] || high[labeling][node] > high[labeling][ancestor])
+                return false;
+        }
+        return true;
+    }
+    
+    
+    ClassGraph getGraph() {
+        return graph;
+    }
+    
+    
+    int getHigh(int labeling, int node) {
+        return high[labeling][node];
+    }
+    
+    
+    int getLabelingCount() {
+        return low.length;
+    }
+    
+    
+    int getLow(int labeling, int node) {
+        return low[labeling][node];
+    }
+    
+    
+    boolean isDescendant(int node, int ancestor) {
+        if (node == ancestor)
+            return true;
+        if (!isNested(node, ancestor))
+            return false;
+        
+        // The intervals cannot tell, so search upwards from the node, only through the nodes that might be descendants
+        // of the ancestor
+        Visits seen = visits.get();
+        seen.clear();
+        seen.visit(node);
+        IntList stack = seen.stack;
+        stack.add(node);
+        while (stack.size() > 0) {
+            int current = stack.removeLast();
+            for (int k = 0; k < graph.getParentCount(current); k++) {
+                int parent = graph.getParent(current, k);
+                if (parent == ancestor)
+                    return true;
+                if (isNested(parent, ancestor) && seen.visit(parent))
+                    stack.add(parent);
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,146 @@
+package pt.owlsql.extractors;
+
+import java.nio.ByteBuffer;
+
+
+// Serializes sorted sets of IDs into compact byte arrays, in the spirit of Roaring bitmaps. The IDs are grouped by
+// their upper 16 bits, and each group is stored in whichever form is the smallest: a sorted array of the lower 16
+// bits, a bitmap of 2^16 bits, or a list of runs of consecutive values.
+// The layout is: the total number of IDs (4 bytes) and the number of groups (4 bytes), followed by each group: the
+// upper 16 bits (2 bytes), the kind of group (1 byte), the number of entries (4 bytes) and the entries.
+final class IDBitmap {
+    
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+    private static final byte RUNS = 2;
+    
+    private static final int BITMAP_BYTES = 1 << 13;
+    
+    
+    private static int countRuns(int[] ids, int from, int to) {
+        int result = 1;
+        for (int i = from + 1; i < to; i++) {
+            if (ids[i] != ids[i - 1] + 1)
+                result++;
+        }
+        return result;
+    }
+    
+    
+    private static int groupEnd(int[] ids, int from) {
+        int key = ids[from] >>> 16;
+        int result = from + 1;
+        while (result < ids.length && ids[result] >>> 16 == key) {
+            result++;
+        }
+        return result;
+    }
+    
+    
+    static int[] decode(byte[] bytes) {
+        if (bytes == null)
+            return new int[0];
+        
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int[] result = new int[buffer.getInt()];
+        int groups = buffer.getInt();
+        
+        int next = 0;
+        for (int group = 0; group < groups; group++) {
+            int high = (buffer.getShort() & 0xffff) << 16;
+            byte kind = buffer.get();
+            int entries = buffer.getInt();
+            
+            if (kind == ARRAY) {
+                for (int i = 0; i < entries; i++) {
+                    result[next++] = high | (buffer.getShort() & 0xffff);
+                }
+            }
+            else if (kind == BITMAP) {
+                for (int i = 0; i < BITMAP_BYTES; i++) {
+                    int bits = buffer.get() & 0xff;
+                    for (int bit = 0; bits != 0; bit++, bits >>>= 1) {
+                        if ((bits & 1) != 0)
+                            result[next++] = high | (i << 3) | bit;
+                    }
+                }
+            }
+            else {
+                for (int i = 0; i < entries; i++) {
+                    int start = buffer.getShort() & 0xffff;
+                    int length = (buffer.getShort() & 0xffff) + 1;
+                    for (int j = 0; j < length; j++) {
+                        result[next++] = high | (start + j);
+                    }
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    
+    // Serializes the given IDs, which must be sorted, without duplicates, and not negative
+    static byte[] encode(int[] ids) {
+        // Find the size of the result first
+        int size = 8;
+        int groups = 0;
+        for (int from = 0; from < ids.length;) {
+            int to = groupEnd(ids, from);
+            int count = to - from;
+            size += 7 + Math.min(Math.min(2 * count, BITMAP_BYTES), 4 * countRuns(ids, from, to));
+            groups++;
+            from = to;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(ids.length);
+        buffer.putInt(groups);
+        
+        for (int from = 0; from < ids.length;) {
+            int to = groupEnd(ids, from);
+            int count = to - from;
+            int runs = countRuns(ids, from, to);
+            
+            buffer.putShort((short) (ids[from] >>> 16));
+            if (4 * runs < Math.min(2 * count, BITMAP_BYTES)) {
+                buffer.put(RUNS);
+                buffer.putInt(runs);
+                int start = from;
+                for (int i = from + 1; i <= to; i++) {
+                    if (i == to || ids[i] != ids[i - 1] + 1) {
+                        buffer.putShort((short) (ids[start] & 0xffff));
+                        buffer.putShort((short) (i - start - 1));
+                        start = i;
+                    }
+                }
+            }
+            else if (2 * count <= BITMAP_BYTES) {
+                buffer.put(ARRAY);
+                buffer.putInt(count);
+                for (int i = from; i < to; i++) {
+                    buffer.putShort((short) (ids[i] & 0xffff));
+                }
+            }
+            else {
+                buffer.put(BITMAP);
+                buffer.putInt(count);
+                byte[] bitmap = new byte[BITMAP_BYTES];
+                for (int i = from; i < to; i++) {
+                    int low = ids[i] & 0xffff;
+                    bitmap[low >>> 3] |= 1 << (low & 7);
+                }
+                buffer.put(bitmap);
+            }
+            
+            from = to;
+        }
+        
+        return buffer.array();
+    }
+    
+    
+    private IDBitmap() {
+        throw new RuntimeException("Cannot instantiate this class");
+    }
+}
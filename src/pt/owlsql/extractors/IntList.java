@@ -0,0 +1,57 @@
+package pt.owlsql.extractors;
+
+import java.util.Arrays;
+
+
+// A growable list of primitive ints, to collect IDs without boxing them
+public final class IntList {
+    
+    private int[] values;
+    private int size;
+    
+    
+    public IntList() {
+        this(16);
+    }
+    
+    
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+    
+    
+    public void add(int value) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, values.length * 2);
+        values[size++] = value;
+    }
+    
+    
+    public void clear() {
+        size = 0;
+    }
+    
+    
+    public int get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return values[index];
+    }
+    
+    
+    public int removeLast() {
+        if (size == 0)
+            throw new IndexOutOfBoundsException("The list is empty");
+        return values[--size];
+    }
+    
+    
+    public int size() {
+        return size;
+    }
+    
+    
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -5,7 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Set;
 
 import org.semanticweb.owlapi.model.EntityType;
@@ -25,17 +25,13 @@ public final class IntrinsicICExtractor extends OWLExtractor {
     private final LeavesExtractor leaves;
     
     private double zhouK;
-    private double secoIC;
-    private double zhouIC;
-    private double sanchezIC;
-    private double leavesIC;
-    private int maxDepth;
-    private double log_tC;
-    private double log_tL;
-    private double log_mD1;
     
     private PreparedStatement getICStatement;
     
+    // The IC of every class by method and internal ID (NaN for unknown IDs), loaded on first use to compare many
+    // classes at once
+    private double[][] icValues;
+    
     
     public IntrinsicICExtractor() throws SQLException {
         utils = getExtractor(SQLCoreUtils.class);
@@ -44,26 +40,32 @@ public final class IntrinsicICExtractor extends OWLExtractor {
     }
     
     
-    private void calculate(OWLClass owlClass) throws SQLException {
-        if (owlClass == null) {
-            secoIC = zhouIC = sanchezIC = leavesIC = 0;
-            return;
+    private double[][] loadICValues() throws SQLException {
+        try (Statement statement = getConnection().createStatement()) {
+            int maxID;
+            try (ResultSet resultSet = statement.executeQuery("SELECT MAX(class) FROM intrinsic_ic")) {
+                resultSet.next();
+                maxID = resultSet.getInt(1);
+            }
+            
+            double[][] result = new double[IntrinsicICMethod.values().length][maxID + 1];
+            for (double[] values : result) {
+                Arrays.fill(values, Double.NaN);
+            }
+            
+            try (ResultSet resultSet = statement.executeQuery(""
+                    + "SELECT class, seco, zhou, sanchez, leaves "
+                    + "FROM intrinsic_ic")) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt(1);
+                    result[IntrinsicICMethod.SECO.ordinal()][id] = resultSet.getDouble(2);
+                    result[IntrinsicICMethod.ZHOU.ordinal()][id] = resultSet.getDouble(3);
+                    result[IntrinsicICMethod.SANCHEZ.ordinal()][id] = resultSet.getDouble(4);
+                    result[IntrinsicICMethod.LEAVES.ordinal()][id] = resultSet.getDouble(5);
+                }
+            }
+            return result;
         }
-        
-        int nDescendants = ancestry.getNumberOfSubclasses(owlClass);
-        int nAncestors = ancestry.getNumberOfSuperclasses(owlClass);
-        int nLeaves = leaves.getLeafDescendantsSize(owlClass);
-        int depth = ancestry.getDepth(owlClass);
-        
-        double log_nD = Math.log(nDescendants);
-        double log_nL = Math.log(nLeaves);
-        
-        // Formulas are correct but look different to increase calculation speed
-        // They are also normalized so that all scores are form 0 to 1
-        secoIC = 1 - log_nD / log_tC;
-        zhouIC = zhouK * secoIC + (1 - zhouK) * Math.log(depth + 1) / log_mD1;
-        sanchezIC = (log_tL + Math.log(nAncestors) - log_nL) / (log_tC + log_tL);
-        leavesIC = 1 - log_nL / log_tL;
     }
     
     
@@ -83,40 +85,67 @@ public final class IntrinsicICExtractor extends OWLExtractor {
                 + "UNIQUE (class))");
         statement.close();
         
-        PreparedStatement insertStatement = connection.prepareStatement(""
-                + "INSERT INTO intrinsic_ic (class, seco, zhou, sanchez, leaves) "
-                + "VALUES (?, ?, ?, ?, ?)");
-        
         System.out.println("Finding all the intrinsic IC values (SECO, ZHOU, SANCHEZ and LEAVES)");
         
-        // Start by getting a reference to all the classes
-        HashSet<OWLClass> allClasses = utils.getAllEntities(EntityType.CLASS);
-        log_tC = Math.log(allClasses.size());
-        log_tL = Math.log(leaves.getNumberOfLeaves());
+        // Start by counting all the classes
+        double log_tC = Math.log(utils.getNumberOfEntities(EntityType.CLASS));
+        double log_tL = Math.log(leaves.getNumberOfLeaves());
+        double log_mD1 = Math.log(ancestry.getMaxDepth() + 1);
         
-        maxDepth = ancestry.getMaxDepth();
-        log_mD1 = Math.log(maxDepth + 1);
+        // The hierarchy has already counted everything we need for each class, so it is read in one go
+        IntList classes = new IntList();
+        IntList ancestorCounts = new IntList();
+        IntList descendantCounts = new IntList();
+        IntList depths = new IntList();
+        IntList leafCounts = new IntList();
+        try (Statement statsStatement = connection.createStatement();
+                ResultSet resultSet = statsStatement.executeQuery(""
+                        + "SELECT class, ancestors, descendants, max_depth, leaves "
+                        + "FROM class_stats")) {
+            while (resultSet.next()) {
+                classes.add(resultSet.getInt(1));
+                ancestorCounts.add(resultSet.getInt(2));
+                descendantCounts.add(resultSet.getInt(3));
+                depths.add(resultSet.getInt(4));
+                leafCounts.add(resultSet.getInt(5));
+            }
+        }
         
-        int counter = 0;
-        for (OWLClass owlClass : allClasses) {
-            calculate(owlClass);
-            int id = utils.getID(owlClass);
-            insertStatement.setInt(1, id);
-            insertStatement.setDouble(2, secoIC);
-            insertStatement.setDouble(3, zhouIC);
-            insertStatement.setDouble(4, sanchezIC);
-            insertStatement.setDouble(5, leavesIC);
-            insertStatement.addBatch();
+        // Formulas are correct but look different to increase calculation speed
+        // They are also normalized so that all scores are form 0 to 1
+        int size = classes.size();
+        double[] seco = new double[size];
+        double[] zhou = new double[size];
+        double[] sanchez = new double[size];
+        double[] leavesIC = new double[size];
+        for (int i = 0; i < size; i++) {
+            double log_nD = Math.log(descendantCounts.get(i));
+            double log_nL = Math.log(leafCounts.get(i));
             
-            counter++;
-            if (counter % 1000 == 0) {
-                System.out.println("... IC for " + counter + " classes found ...");
-                insertStatement.executeBatch();
-            }
+            seco[i] = 1 - log_nD / log_tC;
+            zhou[i] = zhouK * seco[i] + (1 - zhouK) * Math.log(depths.get(i) + 1) / log_mD1;
+            sanchez[i] = (log_tL + Math.log(ancestorCounts.get(i)) - log_nL) / (log_tC + log_tL);
+            leavesIC[i] = 1 - log_nL / log_tL;
         }
         
-        insertStatement.executeBatch();
-        insertStatement.close();
+        try (PreparedStatement insertStatement = connection.prepareStatement(""
+                + "INSERT INTO intrinsic_ic (class, seco, zhou, sanchez, leaves) "
+                + "VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < size; i++) {
+                insertStatement.setInt(1, classes.get(i));
+                insertStatement.setDouble(2, seco[i]);
+                insertStatement.setDouble(3, zhou[i]);
+                insertStatement.setDouble(4, sanchez[i]);
+                insertStatement.setDouble(5, leavesIC[i]);
+                insertStatement.addBatch();
+                
+                if ((i + 1) % 1000 == 0) {
+                    System.out.println("... IC for " + (i + 1) + " classes written ...");
+                    insertStatement.executeBatch();
+                }
+            }
+            insertStatement.executeBatch();
+        }
     }
     
     
@@ -134,6 +163,7 @@ public final class IntrinsicICExtractor extends OWLExtractor {
                 + "SELECT seco, zhou, sanchez, leaves "
                 + "FROM intrinsic_ic "
                 + "WHERE class = ?");
+        icValues = null;
     }
     
     
@@ -169,4 +199,22 @@ public final class IntrinsicICExtractor extends OWLExtractor {
         
         return -1;
     }
+    
+    
+    public OWLClass getMostInformativeCommonAncestor(OWLClass cls, OWLClass other, IntrinsicICMethod method)
+            throws SQLException {
+        int id = getMostInformativeCommonAncestorID(utils.getID(cls), utils.getID(other), method);
+        return id == -1 ? null : utils.getEntity(id).asOWLClass();
+    }
+    
+    
+    // The common ancestor of two classes with the highest IC according to the given method, or -1 if they have no
+    // common ancestors
+    public int getMostInformativeCommonAncestorID(int id, int otherID, IntrinsicICMethod method) throws SQLException {
+        if (icValues == null)
+            icValues = loadICValues();
+        
+        // Equivalent classes have the same statistics, and so the same IC
+        return ancestry.getBestCommonAncestorID(id, otherID, icValues[method.ordinal()]);
+    }
 }
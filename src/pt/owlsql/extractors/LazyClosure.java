@@ -0,0 +1,104 @@
+package pt.owlsql.extractors;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+// The ancestry of a ClassGraph found on demand, with a breadth-first search up or down from each node that is asked
+// for. The results are kept in a least-recently-used cache of at most the given number of bytes, so that memory is
+// proportional to the number of direct relations plus the budget, instead of to the size of the closure.
+final class LazyClosure extends ClassAncestry {
+    
+    // A rough cost of each cached search besides its arrays: the map entry, the key and the array headers
+    private static final int ENTRY_OVERHEAD = 96;
+    
+    // The budget of a fork, which is enough to keep the last few searches of a thread that visits each class once
+    private static final long FORK_BUDGET = 1 << 20;
+    
+    
+    private static long cost(int[][] entry) {
+        long result = ENTRY_OVERHEAD + 4L * entry[0].length;
+        if (entry[1] != null)
+            result += 4L * entry[1].length;
+        return result;
+    }
+    
+    private final ClassGraph graph;
+    private final long budget;
+    
+    // The searches done so far, by (node << 1 | 0) upwards and (node << 1 | 1) downwards: the nodes found, sorted,
+    // and, upwards only, their distances
+    private final LinkedHashMap<Integer, int[][]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long used;
+    
+    private final GraphSearch scratch;
+    
+    
+    LazyClosure(ClassGraph graph, long budget) {
+        this.graph = graph;
+        this.budget = budget;
+        scratch = new GraphSearch(graph);
+    }
+    
+    
+    private int[][] search(int node, boolean up) {
+        Integer key = node << 1 | (up ? 0 : 1);
+        int[][] result = cache.get(key);
+        if (result != null)
+            return result;
+        
+        scratch.reach(node, 0);
+        scratch.expand(up);
+        result = scratch.finish(up);
+        
+        // Keep the result, and make room for it by forgetting the searches that were used the longest ago
+        long cost = cost(result);
+        if (cost <= budget) {
+            cache.put(key, result);
+            used += cost;
+            Iterator<int[][]> iterator = cache.values().iterator();
+            while (used > budget) {
+                used -= cost(iterator.next());
+                iterator.remove();
+            }
+        }
+        
+        return result;
+    }
+    
+    
+    @Override
+    ClassAncestry fork() {
+        return new LazyClosure(graph, FORK_BUDGET);
+    }
+    
+    
+    @Override
+    synchronized int[] getAncestors(int node) {
+        return search(node, true)[0];
+    }
+    
+    
+    @Override
+    synchronized int getDescendantCount(int node) {
+        return search(node, false)[0].length;
+    }
+    
+    
+    @Override
+    synchronized int[] getDescendants(int node) {
+        return search(node, false)[0];
+    }
+    
+    
+    @Override
+    synchronized int[] getDistances(int node) {
+        return search(node, true)[1];
+    }
+    
+    
+    @Override
+    ClassGraph getGraph() {
+        return graph;
+    }
+}
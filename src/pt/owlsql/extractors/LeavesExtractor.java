@@ -5,10 +5,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLEntity;
 import org.semanticweb.owlapi.model.OWLOntology;
 
 import pt.owlsql.OWLExtractor;
@@ -17,17 +19,31 @@ import pt.owlsql.OWLExtractor;
 public final class LeavesExtractor extends OWLExtractor {
     
     private final SQLCoreUtils utils;
+    private final HierarchyExtractor hierarchy;
     
     private PreparedStatement isLeafStatement;
-    private PreparedStatement getLeaves;
-    private PreparedStatement getLeavesSize;
     private PreparedStatement getNumberOfLeaves;
     
+    // The IDs of the leaves, loaded on first use
+    private BitSet leaves;
+    
     
     public LeavesExtractor() throws SQLException {
         // Make sure that we have also have initialized the SQLCoreUtils and FlatAncestryExtractor classes.
         utils = getExtractor(SQLCoreUtils.class);
-        getExtractor(HierarchyExtractor.class);
+        hierarchy = getExtractor(HierarchyExtractor.class);
+    }
+    
+    
+    private BitSet loadLeaves() throws SQLException {
+        BitSet result = new BitSet();
+        try (Statement statement = getConnection().createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT id FROM leaves")) {
+            while (resultSet.next()) {
+                result.set(resultSet.getInt(1));
+            }
+        }
+        return result;
     }
     
     
@@ -40,12 +56,13 @@ public final class LeavesExtractor extends OWLExtractor {
         statement.execute("DROP TABLE IF EXISTS leaves");
         statement.execute("CREATE TABLE leaves (id INT, UNIQUE (id))");
         
+        // A leaf is a class whose only descendants are itself and its equivalent classes, that is, a class whose
+        // descendants are all leaves; the hierarchy has already counted them
         statement.execute(""
                 + "INSERT INTO leaves (id) "
-                + "SELECT superclass "
-                + "FROM hierarchy "
-                + "GROUP BY superclass "
-                + "HAVING COUNT(*) = 1");
+                + "SELECT class "
+                + "FROM class_stats "
+                + "WHERE leaves = descendants");
         
         statement.close();
     }
@@ -56,37 +73,37 @@ public final class LeavesExtractor extends OWLExtractor {
         Connection connection = getConnection();
         
         isLeafStatement = connection.prepareStatement("SELECT COUNT(*) FROM leaves WHERE id = ?");
-        getLeaves = connection.prepareStatement(""
-                + "SELECT subclass "
-                + "FROM hierarchy "
-                + "JOIN leaves ON leaves.id = subclass "
-                + "WHERE superclass = ?");
-        getLeavesSize = connection.prepareStatement(""
-                + "SELECT COUNT(*) "
-                + "FROM hierarchy "
-                + "JOIN leaves ON leaves.id = subclass "
-                + "WHERE superclass = ?");
         getNumberOfLeaves = connection.prepareStatement("SELECT COUNT(*) FROM leaves");
+        leaves = null;
     }
     
     
     public HashSet<OWLClass> getLeafDescendants(OWLClass owlClass) throws SQLException {
-        getLeaves.setInt(1, utils.getID(owlClass));
         HashSet<OWLClass> result = new HashSet<>();
-        try (ResultSet resultSet = getLeaves.executeQuery()) {
-            while (resultSet.next())
-                result.add((OWLClass) utils.getEntity(resultSet.getInt(1)));
+        for (OWLEntity entity : utils.getEntities(getLeafDescendantIDs(utils.getID(owlClass)))) {
+            result.add(entity.asOWLClass());
         }
         return result;
     }
     
     
-    public int getLeafDescendantsSize(OWLClass owlClass) throws SQLException {
-        getLeavesSize.setInt(1, utils.getID(owlClass));
-        try (ResultSet resultSet = getLeavesSize.executeQuery()) {
-            resultSet.next();
-            return resultSet.getInt(1);
+    // The same as getLeafDescendants, in terms of internal IDs, sorted
+    public int[] getLeafDescendantIDs(int id) throws SQLException {
+        // The hierarchy finds the descendants in whichever way it is stored, so we only need to pick the leaves
+        if (leaves == null)
+            leaves = loadLeaves();
+        
+        IntList result = new IntList();
+        for (int descendant : hierarchy.getSubclassIDs(id)) {
+            if (leaves.get(descendant))
+                result.add(descendant);
         }
+        return result.toArray();
+    }
+    
+    
+    public int getLeafDescendantsSize(OWLClass owlClass) throws SQLException {
+        return hierarchy.getNumberOfLeafDescendants(owlClass);
     }
     
     
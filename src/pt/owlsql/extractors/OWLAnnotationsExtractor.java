@@ -12,6 +12,7 @@ import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLEntity;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
 import org.semanticweb.owlapi.model.OWLOntology;
@@ -158,12 +159,16 @@ public final class OWLAnnotationsExtractor extends OWLExtractor {
         getTransitiveAnnotations.setInt(1, classID);
         getTransitiveAnnotations.setInt(2, propertyID);
         
+        IntList ids = new IntList();
         try (ResultSet resultSet = getTransitiveAnnotations.executeQuery()) {
             while (resultSet.next()) {
-                result.add(factory.getOWLClass(IRI.create(resultSet.getString(1))));
+                ids.add(resultSet.getInt(1));
             }
         }
         
+        for (OWLEntity entity : utils.getEntities(ids.toArray())) {
+            result.add(entity.asOWLClass());
+        }
         return result;
     }
     
@@ -178,12 +183,16 @@ public final class OWLAnnotationsExtractor extends OWLExtractor {
         getTransitiveEntities.setInt(1, annotationID);
         getTransitiveEntities.setInt(2, propertyID);
         
+        IntList ids = new IntList();
         try (ResultSet resultSet = getTransitiveEntities.executeQuery()) {
             while (resultSet.next()) {
-                result.add(factory.getOWLClass(IRI.create(resultSet.getString(1))));
+                ids.add(resultSet.getInt(1));
             }
         }
         
+        for (OWLEntity entity : utils.getEntities(ids.toArray())) {
+            result.add(entity.asOWLClass());
+        }
         return result;
     }
 }
@@ -1,25 +1,78 @@
 package pt.owlsql.extractors;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 
+import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.EntityType;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLEntity;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
 
+import pt.json.JSONException;
 import pt.owlsql.OWLExtractor;
 
+import com.google.gson.JsonElement;
+
 
 public final class SQLCoreUtils extends OWLExtractor {
     
+    // A connection with its own lookup statements. Threads take one from the pool for each cache miss, so that
+    // concurrent misses never share a statement (or a connection)
+    private final class Lookup {
+        
+        private final Connection connection;
+        private final PreparedStatement entityToIndex;
+        private final PreparedStatement indexToEntity;
+        
+        
+        private Lookup(Connection connection) throws SQLException {
+            this.connection = connection;
+            entityToIndex = connection.prepareStatement("SELECT id FROM owl_objects WHERE " + getEntityKeyCondition());
+            indexToEntity = connection.prepareStatement(getSelectEntities() + "WHERE owl_objects.id = ?");
+        }
+        
+        
+        private void close() throws SQLException {
+            entityToIndex.close();
+            indexToEntity.close();
+            connection.close();
+        }
+    }
+    
+    
+    private static final int BATCH_SIZE = 1000;
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+    
+    // The most lookups open at the same time, each with its own connection; threads that need one more wait for one
+    // to be released
+    private static final int MAX_LOOKUPS = 16;
+    
     private static final Hashtable<String, EntityType<?>> nameToType = new Hashtable<>();
     
     static {
@@ -29,77 +82,547 @@ public final class SQLCoreUtils extends OWLExtractor {
     }
     
     
-    private static void extractEntityID(Hashtable<OWLEntity, Integer> done, OWLEntity entity,
-            PreparedStatement indexNewEntity, PreparedStatement entityOntologyAssociation) throws SQLException {
+    static OWLEntity getEntity(String typeName, String iri) {
+        EntityType<?> type = nameToType.get(typeName);
+        // TODO If OWL-API changes the entity types, this will probably not make sense anymore.
+        return factory.getOWLEntity(type, IRI.create(iri));
+    }
+    
+    
+    private static byte[] getIRIHash(OWLEntity entity) {
+        // The hash covers the entity type as well, since the same IRI can be used for entities of different types
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        String key = entity.getEntityType().getName() + " " + entity.getIRI().toString();
+        return digest.digest(key.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    
+    // The named classes of the ontologies in the pre-order of a depth-first traversal of the asserted hierarchy, from
+    // owl:Thing down. The descendants of a class then mostly come right after it, so they get consecutive IDs
+    private static ArrayList<OWLClass> orderClasses(Set<OWLOntology> ontologies) {
+        OWLClass owlThing = factory.getOWLThing();
+        HashMap<OWLClass, ArrayList<OWLClass>> children = new HashMap<>();
+        HashSet<OWLClass> hasSuperclass = new HashSet<>();
+        LinkedHashSet<OWLClass> classes = new LinkedHashSet<>();
         
-        // Store (or retrieve) the internal ID of this entity to associate it with the current ontology
-        int id;
+        for (OWLOntology ontology : ontologies) {
+            classes.addAll(ontology.getClassesInSignature(true));
+            for (OWLSubClassOfAxiom axiom : ontology.getAxioms(AxiomType.SUBCLASS_OF, true)) {
+                if (axiom.getSubClass().isAnonymous() || axiom.getSuperClass().isAnonymous())
+                    continue;
+                
+                OWLClass subclass = axiom.getSubClass().asOWLClass();
+                OWLClass superclass = axiom.getSuperClass().asOWLClass();
+                ArrayList<OWLClass> list = children.get(superclass);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    children.put(superclass, list);
+                }
+                list.add(subclass);
+                hasSuperclass.add(subclass);
+            }
+        }
         
-        if (done.containsKey(entity))
-            id = done.get(entity);
+        // Classes without a superclass hang from owl:Thing, as they do in the hierarchy
+        ArrayList<OWLClass> roots = new ArrayList<>();
+        for (OWLClass owlClass : classes) {
+            if (!hasSuperclass.contains(owlClass) && !owlClass.equals(owlThing))
+                roots.add(owlClass);
+        }
+        ArrayList<OWLClass> thingChildren = children.get(owlThing);
+        if (thingChildren != null)
+            roots.addAll(thingChildren);
+        children.put(owlThing, roots);
         
-        else {
-            indexNewEntity.setString(1, entity.getEntityType().getName());
-            indexNewEntity.setString(2, entity.getIRI().toString());
-            indexNewEntity.executeUpdate();
+        // Children are pushed in reverse so that they are visited in their original order. Classes that cannot be
+        // reached from owl:Thing (those in cycles without a way up) come at the end
+        ArrayList<OWLClass> result = new ArrayList<>();
+        HashSet<OWLClass> seen = new HashSet<>();
+        ArrayList<OWLClass> stack = new ArrayList<>();
+        stack.add(owlThing);
+        stack.addAll(classes);
+        Collections.reverse(stack);
+        while (!stack.isEmpty()) {
+            OWLClass owlClass = stack.remove(stack.size() - 1);
+            if (!seen.add(owlClass))
+                continue;
+            result.add(owlClass);
             
-            try (ResultSet generatedKeys = indexNewEntity.getGeneratedKeys()) {
-                generatedKeys.next();
-                id = generatedKeys.getInt(1);
+            ArrayList<OWLClass> list = children.get(owlClass);
+            if (list != null) {
+                for (int i = list.size() - 1; i >= 0; i--) {
+                    if (!seen.contains(list.get(i)))
+                        stack.add(list.get(i));
+                }
             }
-            done.put(entity, id);
         }
         
-        entityOntologyAssociation.setInt(1, id);
-        entityOntologyAssociation.executeUpdate();
+        return result;
     }
     
     
-    private static OWLEntity getEntity(String typeName, String iri) {
-        EntityType<?> type = nameToType.get(typeName);
-        // TODO If OWL-API changes the entity types, this will probably not make sense anymore.
-        return factory.getOWLEntity(type, IRI.create(iri));
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append("?");
+        }
+        return sb.toString();
     }
     
-    private PreparedStatement entityToIndex;
-    private PreparedStatement indexToEntity;
-    private PreparedStatement entityToOntologyID;
-    
-    private PreparedStatement setExtra;
-    private PreparedStatement getExtra;
     private PreparedStatement getEntities;
     private PreparedStatement getAllEntities;
     
-    private Hashtable<Integer, OWLEntity> idToEntity;
-    private Hashtable<OWLEntity, Integer> entityToID;
+    // Hits are served from these caches without locking; only misses go to the database. Entities that are not in
+    // the database are remembered separately, so that unknown IRIs cannot crowd out the known ones
+    private int cacheSize = 0;
+    private int negativeCacheSize = 10000;
+    private volatile EntityCache<Integer, OWLEntity> idToEntity = new EntityCache<>(0);
+    private volatile EntityCache<OWLEntity, Integer> entityToID = new EntityCache<>(0);
+    private volatile EntityCache<OWLEntity, Boolean> unknownEntities = new EntityCache<>(negativeCacheSize);
+    private final ConcurrentLinkedQueue<Lookup> lookups = new ConcurrentLinkedQueue<>();
+    private final Semaphore lookupPermits = new Semaphore(MAX_LOOKUPS);
+    
+    private boolean preload;
+    private volatile EntityDictionary dictionary;
+    
+    private boolean hashIRIs;
+    private volatile boolean hashedLayout;
+    
+    // When keeping IDs, entities that were already in the database before an extraction keep their ID, and new
+    // entities get IDs above all the previous ones. IDs of entities that disappear are not reused
+    private boolean keepIDs;
+    private HashMap<OWLEntity, Integer> previousIDs;
+    private int nextID;
+    
+    // Whether classes get their IDs in a depth-first order of the hierarchy, instead of in the order they are found.
+    // When keeping IDs, this only applies to the classes that were not in the database before
+    private boolean topologicalIDs;
+    
+    // The extras table is read once and then kept in memory. Writes are coalesced per tag and only sent to the
+    // database when flushed, which happens at the end of each extractor and when the connection is closed
+    private final HashMap<String, String> extras = new HashMap<>();
+    private final HashSet<String> dirtyExtras = new HashSet<>();
+    
+    // The ontologies that define each entity, loaded on first use. Most entities share their membership with many
+    // others, so each distinct set is stored once and each entity ID points to one of them
+    private int[] membershipIndex;
+    private ArrayList<Set<OWLOntologyID>> memberships;
+    
+    
+    private Lookup acquireLookup() throws SQLException {
+        try {
+            lookupPermits.acquire();
+        }
+        catch (InterruptedException e) {
+            throw new SQLException("Interrupted while waiting for a lookup", e);
+        }
+        
+        Lookup result = lookups.poll();
+        if (result != null)
+            return result;
+        try {
+            return new Lookup(openConnection());
+        }
+        catch (SQLException e) {
+            lookupPermits.release();
+            throw e;
+        }
+    }
+    
+    
+    private int assignID(Map<OWLEntity, Integer> done, OWLEntity entity) {
+        // Retrieve the internal ID of this entity, or assign it one. IDs are handed out here instead of being
+        // generated by MySQL so that no round trip to the database is needed per entity
+        Integer id = done.get(entity);
+        if (id == null) {
+            if (previousIDs != null)
+                id = previousIDs.get(entity);
+            if (id == null)
+                id = nextID++;
+            done.put(entity, id);
+        }
+        return id;
+    }
+    
+    
+    private void closeLookups() throws SQLException {
+        Lookup lookup;
+        while ((lookup = lookups.poll()) != null) {
+            lookup.close();
+        }
+    }
+    
+    
+    private HashMap<OWLEntity, Integer> fetchIDs(Lookup lookup, List<OWLEntity> entities) throws SQLException {
+        // With plain IRIs, we look for the IRIs and then check that the types match
+        String condition;
+        if (hashedLayout)
+            condition = "owl_objects.iri_hash IN (" + placeholders(entities.size()) + ")";
+        else
+            condition = "owl_objects.iri IN (" + placeholders(entities.size()) + ")";
+        
+        HashMap<OWLEntity, Integer> found = new HashMap<>();
+        try (PreparedStatement statement = lookup.connection.prepareStatement(getSelectEntities()
+                + "WHERE "
+                + condition)) {
+            for (int i = 0; i < entities.size(); i++) {
+                if (hashedLayout)
+                    statement.setBytes(i + 1, getIRIHash(entities.get(i)));
+                else
+                    statement.setString(i + 1, entities.get(i).getIRI().toString());
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    found.put(getEntity(resultSet.getString(2), resultSet.getString(3)), resultSet.getInt(1));
+                }
+            }
+        }
+        
+        // Entities that are not found are remembered as unknown, just like getID does
+        for (OWLEntity entity : entities) {
+            Integer id = found.get(entity);
+            if (id == null)
+                unknownEntities.put(entity, true);
+            else
+                entityToID.put(entity, id);
+        }
+        return found;
+    }
+    
+    
+    private String getEntityKeyCondition() {
+        if (hashedLayout)
+            return "owl_objects.iri_hash = ?";
+        return "owl_objects.type = ? AND owl_objects.iri = ?";
+    }
+    
+    
+    private <U extends OWLEntity> EntityCursor<U> openCursor(String query) throws SQLException {
+        Connection connection = openConnection();
+        try {
+            return new EntityCursor<>(connection, query);
+        }
+        catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+    
+    
+    private String getSelectEntities() {
+        // Both layouts produce the same three columns: the ID, the entity type and the full IRI
+        if (hashedLayout)
+            return ""
+                    + "SELECT owl_objects.id, owl_objects.type, CONCAT(namespaces.namespace, owl_objects.local_name) "
+                    + "FROM owl_objects "
+                    + "JOIN namespaces ON namespaces.id = owl_objects.namespace ";
+        return "SELECT owl_objects.id, owl_objects.type, owl_objects.iri FROM owl_objects ";
+    }
+    
+    
+    private EntityDictionary loadDictionary() throws SQLException {
+        EntityDictionary result;
+        
+        try (Statement statement = getConnection().createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("SELECT MAX(id), COUNT(*) FROM owl_objects")) {
+                resultSet.next();
+                result = new EntityDictionary(resultSet.getInt(1), resultSet.getInt(2));
+            }
+        }
+        
+        // Read the whole table in one sequential scan, streaming the rows instead of buffering them in the driver
+        try (Statement statement = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet resultSet = statement.executeQuery(getSelectEntities())) {
+                while (resultSet.next()) {
+                    result.put(resultSet.getInt(1), getEntity(resultSet.getString(2), resultSet.getString(3)));
+                }
+            }
+        }
+        
+        System.out.println("Preloaded " + result.size() + " entities");
+        
+        return result;
+    }
+    
+    
+    private synchronized void loadExtras() throws SQLException {
+        // Pending writes are kept, as they are more recent than what is stored
+        HashMap<String, String> pending = new HashMap<>();
+        for (String key : dirtyExtras) {
+            pending.put(key, extras.get(key));
+        }
+        
+        extras.clear();
+        if (tableExists("extras")) {
+            try (Statement statement = getConnection().createStatement();
+                    ResultSet resultSet = statement.executeQuery("SELECT tag, value FROM extras")) {
+                while (resultSet.next()) {
+                    extras.put(resultSet.getString(1), resultSet.getString(2));
+                }
+            }
+        }
+        extras.putAll(pending);
+    }
+    
+    
+    private void loadMemberships() throws SQLException {
+        HashMap<Integer, OWLOntologyID> ontologyIDs = new HashMap<>();
+        
+        try (Statement statement = getConnection().createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("SELECT id, ontology_iri, version_iri FROM ontologies")) {
+                while (resultSet.next()) {
+                    IRI ontologyIRI = IRI.create(resultSet.getString(2));
+                    String versionString = resultSet.getString(3);
+                    IRI versionIRI = versionString.equals("") ? null : IRI.create(versionString);
+                    ontologyIDs.put(resultSet.getInt(1), new OWLOntologyID(ontologyIRI, versionIRI));
+                }
+            }
+            
+            try (ResultSet resultSet = statement.executeQuery("SELECT MAX(id) FROM owl_objects")) {
+                resultSet.next();
+                membershipIndex = new int[resultSet.getInt(1) + 1];
+            }
+        }
+        
+        // The empty membership is the first one, so that unknown IDs have no ontologies
+        memberships = new ArrayList<>();
+        memberships.add(Collections.<OWLOntologyID> emptySet());
+        HashMap<ByteBuffer, Integer> distinct = new HashMap<>();
+        distinct.put(ByteBuffer.wrap(new byte[0]), 0);
+        
+        try (Statement statement = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet resultSet = statement.executeQuery("SELECT id, membership FROM owl_objects")) {
+                while (resultSet.next()) {
+                    byte[] bytes = resultSet.getBytes(2);
+                    ByteBuffer key = ByteBuffer.wrap(bytes == null ? new byte[0] : bytes);
+                    
+                    Integer index = distinct.get(key);
+                    if (index == null) {
+                        HashSet<OWLOntologyID> set = new HashSet<>();
+                        BitSet bits = BitSet.valueOf(key);
+                        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                            OWLOntologyID ontologyID = ontologyIDs.get(i);
+                            if (ontologyID != null)
+                                set.add(ontologyID);
+                        }
+                        
+                        index = memberships.size();
+                        memberships.add(Collections.unmodifiableSet(set));
+                        distinct.put(key, index);
+                    }
+                    membershipIndex[resultSet.getInt(1)] = index;
+                }
+            }
+        }
+    }
+    
+    
+    private HashMap<OWLEntity, Integer> readPreviousIDs() throws SQLException {
+        HashMap<OWLEntity, Integer> result = new HashMap<>();
+        if (!tableExists("owl_objects"))
+            return result;
+        
+        try (Statement statement = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet resultSet = statement.executeQuery(getSelectEntities())) {
+                while (resultSet.next()) {
+                    result.put(getEntity(resultSet.getString(2), resultSet.getString(3)), resultSet.getInt(1));
+                }
+            }
+        }
+        return result;
+    }
+    
+    
+    private void releaseLookup(Lookup lookup) {
+        lookups.offer(lookup);
+        lookupPermits.release();
+    }
+    
+    
+    private int setEntityKey(PreparedStatement statement, int index, OWLEntity entity) throws SQLException {
+        if (hashedLayout) {
+            statement.setBytes(index, getIRIHash(entity));
+            return index + 1;
+        }
+        statement.setString(index, entity.getEntityType().getName());
+        statement.setString(index + 1, entity.getIRI().toString());
+        return index + 2;
+    }
+    
+    
+    @SuppressWarnings("resource")
+    private void writeHashedEntities(Map<OWLEntity, Integer> ids, Map<OWLEntity, BitSet> membership)
+            throws SQLException {
+        // Each IRI is split into its namespace, which is stored only once, and its local name
+        HashMap<String, Integer> namespaceIDs = new HashMap<>();
+        
+        PreparedStatement insertNamespace = getConnection()
+                .prepareStatement("INSERT INTO namespaces (id, namespace) VALUES (?, ?)");
+        PreparedStatement insertEntity = getConnection().prepareStatement(""
+                + "INSERT INTO owl_objects (id, type, namespace, local_name, iri_hash, membership) "
+                + "VALUES (?, ?, ?, ?, ?, ?)");
+        
+        int counter = 0;
+        for (Entry<OWLEntity, Integer> entry : ids.entrySet()) {
+            OWLEntity entity = entry.getKey();
+            IRI iri = entity.getIRI();
+            String iriString = iri.toString();
+            String namespace = iri.getNamespace();
+            String localName = iri.getFragment();
+            if (localName == null || !iriString.equals(namespace + localName)) {
+                namespace = iriString;
+                localName = "";
+            }
+            
+            Integer namespaceID = namespaceIDs.get(namespace);
+            if (namespaceID == null) {
+                namespaceID = namespaceIDs.size() + 1;
+                namespaceIDs.put(namespace, namespaceID);
+                insertNamespace.setInt(1, namespaceID);
+                insertNamespace.setString(2, namespace);
+                insertNamespace.addBatch();
+            }
+            
+            insertEntity.setInt(1, entry.getValue());
+            insertEntity.setString(2, entity.getEntityType().getName());
+            insertEntity.setInt(3, namespaceID);
+            insertEntity.setString(4, localName);
+            insertEntity.setBytes(5, getIRIHash(entity));
+            insertEntity.setBytes(6, membership.get(entity).toByteArray());
+            insertEntity.addBatch();
+            
+            counter++;
+            if (counter % BATCH_SIZE == 0) {
+                insertNamespace.executeBatch();
+                insertEntity.executeBatch();
+            }
+        }
+        
+        System.out.println(namespaceIDs.size() + " namespaces found");
+        
+        insertNamespace.executeBatch();
+        insertNamespace.close();
+        insertEntity.executeBatch();
+        insertEntity.close();
+    }
+    
+    
+    @SuppressWarnings("resource")
+    private void writeTextEntities(Map<OWLEntity, Integer> ids, Map<OWLEntity, BitSet> membership)
+            throws SQLException {
+        PreparedStatement insertEntity = getConnection()
+                .prepareStatement("INSERT INTO owl_objects (id, type, iri, membership) VALUES (?, ?, ?, ?)");
+        
+        int counter = 0;
+        for (Entry<OWLEntity, Integer> entry : ids.entrySet()) {
+            insertEntity.setInt(1, entry.getValue());
+            insertEntity.setString(2, entry.getKey().getEntityType().getName());
+            insertEntity.setString(3, entry.getKey().getIRI().toString());
+            insertEntity.setBytes(4, membership.get(entry.getKey()).toByteArray());
+            insertEntity.addBatch();
+            
+            counter++;
+            if (counter % BATCH_SIZE == 0)
+                insertEntity.executeBatch();
+        }
+        
+        insertEntity.executeBatch();
+        insertEntity.close();
+    }
+    
+    
+    @Override
+    protected void beforeWipe() throws SQLException {
+        // The database is about to be dropped, so the IDs we want to keep must be read now
+        if (keepIDs)
+            previousIDs = readPreviousIDs();
+    }
+    
+    
+    // Each pooled lookup holds a connection of its own
+    @Override
+    protected void close() throws SQLException {
+        closeLookups();
+    }
     
     
     @SuppressWarnings("resource")
     @Override
     protected void extract(Set<OWLOntology> ontologies) throws SQLException {
+        // Whatever was loaded before is about to become stale
+        dictionary = null;
+        idToEntity.clear();
+        entityToID.clear();
+        unknownEntities.clear();
+        
+        // Read the current IDs before dropping the table, unless they were already read before a wipe
+        nextID = 1;
+        if (keepIDs) {
+            if (previousIDs == null)
+                previousIDs = readPreviousIDs();
+            for (int id : previousIDs.values()) {
+                nextID = Math.max(nextID, id + 1);
+            }
+        }
+        else
+            previousIDs = null;
+        int firstNewID = nextID;
+        
         Statement statement = getConnection().createStatement();
         
         // Create the table that contains the IRI's of OWLEntities
         statement.execute("DROP TABLE IF EXISTS owl_objects");
-        statement.execute(""
-                + "CREATE TABLE owl_objects ("
-                + "id INT PRIMARY KEY AUTO_INCREMENT,"
-                + "type VARCHAR(32),"
-                + "iri TEXT,"
-                + "INDEX (type),"
-                + "INDEX (iri(256)))");
-        
-        // Create table to associate each object with a certain loaded ontology
+        statement.execute("DROP TABLE IF EXISTS namespaces");
+        if (hashIRIs) {
+            // IRIs are split into a shared namespace and a local name, and looked up through a fixed-width hash
+            statement.execute("CREATE TABLE namespaces (id INT PRIMARY KEY, namespace TEXT)");
+            statement.execute(""
+                    + "CREATE TABLE owl_objects ("
+                    + "id INT PRIMARY KEY AUTO_INCREMENT,"
+                    + "type VARCHAR(32),"
+                    + "namespace INT,"
+                    + "local_name TEXT,"
+                    + "iri_hash BINARY(16),"
+                    + "membership BLOB,"
+                    + "INDEX (type),"
+                    + "UNIQUE (iri_hash))");
+        }
+        else {
+            statement.execute(""
+                    + "CREATE TABLE owl_objects ("
+                    + "id INT PRIMARY KEY AUTO_INCREMENT,"
+                    + "type VARCHAR(32),"
+                    + "iri TEXT,"
+                    + "membership BLOB,"
+                    + "INDEX (type),"
+                    + "INDEX (iri(256)))");
+        }
+        
+        // The ontologies of each object are stored in owl_objects.membership, a bitmap indexed by the internal ID of
+        // the ontologies; this table is not used anymore
         statement.execute("DROP TABLE IF EXISTS object_ontology");
-        statement.execute("CREATE TABLE object_ontology ("
-                + "object_id INT,"
-                + "ontology_id INT,"
-                + "INDEX (object_id),"
-                + "INDEX (ontology_id))");
         
         // Create the table for extra information
         statement.execute("DROP TABLE IF EXISTS extras");
         statement.execute("CREATE TABLE extras (tag VARCHAR(256), value TEXT, UNIQUE (tag))");
+        synchronized (this) {
+            extras.clear();
+            dirtyExtras.clear();
+        }
         
         statement.close();
         
@@ -123,24 +646,60 @@ public final class SQLCoreUtils extends OWLExtractor {
         }
         getOntologyIDStatement.close();
         
-        // Now, let's find all the named entities of these ontologies and put them in the database
-        // Start with owl:Thing
-        PreparedStatement indexNewEntity = getConnection()
-                .prepareStatement("INSERT INTO owl_objects (type, iri) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
-        PreparedStatement entityOntologyAssociation = getConnection()
-                .prepareStatement("INSERT INTO object_ontology (object_id, ontology_id) VALUES (?, ?)");
+        // Now, let's find all the named entities of these ontologies and the ontologies each of them belongs to.
+        // Entities tend to share their memberships, so equal bitmaps are the same object, and the bitmap that results
+        // from adding an ontology to another bitmap is computed only once per ontology
+        LinkedHashMap<OWLEntity, Integer> done = new LinkedHashMap<>();
+        HashMap<OWLEntity, BitSet> membership = new HashMap<>();
+        HashMap<BitSet, BitSet> canonical = new HashMap<>();
+        OWLEntity owlThing = factory.getOWLThing();
         
-        Hashtable<OWLEntity, Integer> done = new Hashtable<>();
+        if (topologicalIDs) {
+            System.out.println("Ordering the classes by the hierarchy");
+            for (OWLClass owlClass : orderClasses(ontologies)) {
+                assignID(done, owlClass);
+            }
+        }
         
         for (OWLOntology ontology : ontologies) {
-            Set<OWLEntity> entities = ontology.getSignature(true);
-            entityOntologyAssociation.setInt(2, ontologyInternalID.get(ontology));
+            Set<OWLEntity> entities = new HashSet<>(ontology.getSignature(true));
+            entities.add(owlThing);
+            
+            int ontologyID = ontologyInternalID.get(ontology);
+            HashMap<BitSet, BitSet> transitions = new HashMap<>();
             for (OWLEntity entity : entities) {
-                extractEntityID(done, entity, indexNewEntity, entityOntologyAssociation);
+                assignID(done, entity);
+                
+                BitSet previous = membership.get(entity);
+                BitSet next = transitions.get(previous);
+                if (next == null) {
+                    BitSet candidate = previous == null ? new BitSet() : (BitSet) previous.clone();
+                    candidate.set(ontologyID);
+                    next = canonical.get(candidate);
+                    if (next == null) {
+                        canonical.put(candidate, candidate);
+                        next = candidate;
+                    }
+                    transitions.put(previous, next);
+                }
+                membership.put(entity, next);
             }
-            extractEntityID(done, factory.getOWLThing(), indexNewEntity, entityOntologyAssociation);
         }
-        indexNewEntity.close();
+        
+        System.out.println(done.size() + " entities found");
+        if (previousIDs != null) {
+            int kept = done.size() - (nextID - firstNewID);
+            System.out.println(kept + " entities keep the ID of the previous extraction");
+            previousIDs = null;
+        }
+        
+        System.out.println(canonical.size() + " distinct ontology memberships found");
+        
+        // The entities are written with batched inserts, which the driver rewrites into multi-row INSERT statements
+        if (hashIRIs)
+            writeHashedEntities(done, membership);
+        else
+            writeTextEntities(done, membership);
     }
     
     
@@ -148,85 +707,201 @@ public final class SQLCoreUtils extends OWLExtractor {
     protected void prepare() throws SQLException {
         Connection connection = getConnection();
         
-        idToEntity = new Hashtable<>();
-        entityToID = new Hashtable<>();
+        // The layout of owl_objects may have changed, so we start over with fresh caches and lookup statements
+        idToEntity = new EntityCache<>(cacheSize);
+        entityToID = new EntityCache<>(cacheSize);
+        unknownEntities = new EntityCache<>(negativeCacheSize);
+        closeLookups();
+        
+        hashedLayout = tableExists("namespaces");
         
-        entityToIndex = connection.prepareStatement(""
-                + "SELECT id "
-                + "FROM owl_objects "
-                + "WHERE type = ? AND iri = ?");
-        indexToEntity = connection.prepareStatement("SELECT type, iri FROM owl_objects WHERE id = ?");
+        synchronized (this) {
+            membershipIndex = null;
+            memberships = null;
+        }
         
-        entityToOntologyID = connection.prepareStatement(""
-                + "SELECT ontology_iri, version_iri "
-                + "FROM owl_objects "
-                + "JOIN ontologies ON ontologies.object_id = owl_objects.id "
-                + "WHERE owl_objects.id = ?");
+        loadExtras();
         
-        setExtra = connection.prepareStatement("REPLACE INTO extras (tag, value) VALUES (?, ?)");
-        getExtra = connection.prepareStatement("SELECT value FROM extras WHERE tag = ?");
+        getEntities = connection.prepareStatement(getSelectEntities() + "WHERE owl_objects.type = ?");
+        getAllEntities = connection.prepareStatement(getSelectEntities());
         
-        getEntities = connection.prepareStatement("SELECT iri FROM owl_objects WHERE type = ?");
-        getAllEntities = connection.prepareStatement("SELECT type, iri FROM owl_objects");
+        dictionary = preload ? loadDictionary() : null;
     }
     
     
-    public HashSet<OWLEntity> getAllEntities() throws SQLException {
+    @Override
+    protected void processOption(String key, JsonElement element) throws JSONException {
+        if (key.equals("preload")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            preload = element.getAsBoolean();
+        }
+        else if (key.equals("cache_size") || key.equals("negative_cache_size")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber())
+                throw new JSONException("must be a number");
+            int size = element.getAsInt();
+            if (size < 0)
+                throw new JSONException("must not be negative");
+            if (key.equals("cache_size"))
+                cacheSize = size;
+            else
+                negativeCacheSize = size;
+        }
+        else if (key.equals("keep_ids")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            keepIDs = element.getAsBoolean();
+        }
+        else if (key.equals("topological_ids")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            topologicalIDs = element.getAsBoolean();
+        }
+        else if (key.equals("hash_iris")) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean())
+                throw new JSONException("must be a boolean");
+            hashIRIs = element.getAsBoolean();
+        }
+        else
+            super.processOption(key, element);
+    }
+    
+    
+    @Override
+    public synchronized void flush() throws SQLException {
+        if (dirtyExtras.isEmpty())
+            return;
+        
+        // REPLACE takes care of both new and updated tags
+        try (PreparedStatement statement = getConnection().prepareStatement(""
+                + "REPLACE INTO extras (tag, value) "
+                + "VALUES (?, ?)")) {
+            int counter = 0;
+            for (String key : dirtyExtras) {
+                statement.setString(1, key);
+                statement.setString(2, extras.get(key));
+                statement.addBatch();
+                
+                counter++;
+                if (counter % BATCH_SIZE == 0)
+                    statement.executeBatch();
+            }
+            statement.executeBatch();
+        }
+        dirtyExtras.clear();
+    }
+    
+    
+    public synchronized HashSet<OWLEntity> getAllEntities() throws SQLException {
         HashSet<OWLEntity> result = new HashSet<>();
         try (ResultSet resultSet = getAllEntities.executeQuery()) {
             while (resultSet.next()) {
-                EntityType<?> type = nameToType.get(resultSet.getString(1));
-                result.add(factory.getOWLEntity(type, IRI.create(resultSet.getString(1))));
+                result.add(getEntity(resultSet.getString(2), resultSet.getString(3)));
             }
         }
         return result;
     }
     
     
-    public <U extends OWLEntity> HashSet<U> getAllEntities(EntityType<U> type) throws SQLException {
+    public synchronized <U extends OWLEntity> HashSet<U> getAllEntities(EntityType<U> type) throws SQLException {
         HashSet<U> result = new HashSet<>();
         getEntities.setString(1, type.getName());
         try (ResultSet resultSet = getEntities.executeQuery()) {
             while (resultSet.next()) {
-                result.add(factory.getOWLEntity(type, IRI.create(resultSet.getString(1))));
+                result.add(factory.getOWLEntity(type, IRI.create(resultSet.getString(3))));
             }
         }
         return result;
     }
     
     
-    public Set<OWLOntologyID> getDefiningOntologies(OWLEntity entity) throws SQLException {
-        Set<OWLOntologyID> result = new HashSet<>();
-        entityToOntologyID.setInt(1, getID(entity));
-        try (ResultSet resultSet = entityToOntologyID.executeQuery()) {
-            while (resultSet.next()) {
-                String ontologyString = resultSet.getString(1);
-                IRI ontologyIRI = IRI.create(ontologyString);
-                
-                String versionString = resultSet.getString(2);
-                IRI versionIRI = versionString.equals("") ? null : IRI.create(versionString);
-                
-                result.add(new OWLOntologyID(ontologyIRI, versionIRI));
+    // The returned set is shared between all the entities with the same membership and cannot be modified
+    public synchronized Set<OWLOntologyID> getDefiningOntologies(OWLEntity entity) throws SQLException {
+        if (membershipIndex == null)
+            loadMemberships();
+        
+        int id = getID(entity);
+        if (id <= 0 || id >= membershipIndex.length)
+            return Collections.emptySet();
+        return memberships.get(membershipIndex[id]);
+    }
+    
+    
+    public OWLEntity[] getEntities(int[] ids) throws SQLException {
+        OWLEntity[] result = new OWLEntity[ids.length];
+        
+        // Answer what we can from memory, and collect the rest to fetch it in chunks
+        EntityDictionary dictionary = this.dictionary;
+        IntList misses = new IntList();
+        for (int i = 0; i < ids.length; i++) {
+            if (dictionary != null)
+                result[i] = dictionary.getEntity(ids[i]);
+            else if ((result[i] = idToEntity.get(ids[i])) == null)
+                misses.add(ids[i]);
+        }
+        if (misses.size() == 0)
+            return result;
+        
+        // The cache may decline to keep some of these, so we hold on to them here
+        HashMap<Integer, OWLEntity> fetched = new HashMap<>();
+        
+        Lookup lookup = acquireLookup();
+        try {
+            for (int start = 0; start < misses.size(); start += LOOKUP_CHUNK_SIZE) {
+                int end = Math.min(start + LOOKUP_CHUNK_SIZE, misses.size());
+                try (PreparedStatement statement = lookup.connection.prepareStatement(""
+                        + getSelectEntities()
+                        + "WHERE owl_objects.id IN ("
+                        + placeholders(end - start)
+                        + ")")) {
+                    for (int i = start; i < end; i++) {
+                        statement.setInt(i - start + 1, misses.get(i));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            OWLEntity entity = getEntity(resultSet.getString(2), resultSet.getString(3));
+                            fetched.put(resultSet.getInt(1), entity);
+                            idToEntity.put(resultSet.getInt(1), entity);
+                        }
+                    }
+                }
             }
         }
+        finally {
+            releaseLookup(lookup);
+        }
+        
+        for (int i = 0; i < ids.length; i++) {
+            if (result[i] == null)
+                result[i] = fetched.get(ids[i]);
+        }
         return result;
     }
     
     
     public OWLEntity getEntity(int id) throws SQLException {
-        if (idToEntity.containsKey(id))
-            return idToEntity.get(id);
+        EntityDictionary dictionary = this.dictionary;
+        if (dictionary != null)
+            return dictionary.getEntity(id);
         
-        OWLEntity result = null;
+        OWLEntity result = idToEntity.get(id);
+        if (result != null)
+            return result;
         
-        indexToEntity.setInt(1, id);
-        try (ResultSet results = indexToEntity.executeQuery()) {
-            if (results.next()) {
-                String typeName = results.getString(1);
-                String iri = results.getString(2);
-                result = getEntity(typeName, iri);
+        Lookup lookup = acquireLookup();
+        try {
+            lookup.indexToEntity.setInt(1, id);
+            try (ResultSet results = lookup.indexToEntity.executeQuery()) {
+                if (results.next()) {
+                    String typeName = results.getString(2);
+                    String iri = results.getString(3);
+                    result = getEntity(typeName, iri);
+                }
             }
         }
+        finally {
+            releaseLookup(lookup);
+        }
         
         if (result != null)
             idToEntity.put(id, result);
@@ -235,46 +910,146 @@ public final class SQLCoreUtils extends OWLExtractor {
     }
     
     
-    public String getExtra(String key) throws SQLException {
+    public EntityCache<Integer, OWLEntity> getEntityCache() {
+        return idToEntity;
+    }
+    
+    
+    public synchronized String getExtra(String key) throws SQLException {
         if (key.length() > 256)
             throw new IllegalArgumentException(String.format("Supplied key is longer than 256 characters"));
         
-        getExtra.setString(1, key);
+        return extras.get(key);
+    }
+    
+    
+    public int getID(OWLEntity entity) throws SQLException {
+        EntityDictionary dictionary = this.dictionary;
+        if (dictionary != null)
+            return dictionary.getID(entity);
+        
+        Integer cached = entityToID.get(entity);
+        if (cached != null)
+            return cached;
+        if (unknownEntities.get(entity) != null)
+            return -1;
+        
+        int result = -1;
         
-        try (ResultSet resultSet = getExtra.executeQuery()) {
-            if (resultSet.next())
-                return resultSet.getString(1);
+        Lookup lookup = acquireLookup();
+        try {
+            setEntityKey(lookup.entityToIndex, 1, entity);
+            try (ResultSet results = lookup.entityToIndex.executeQuery()) {
+                if (results.next())
+                    result = results.getInt(1);
+            }
+        }
+        finally {
+            releaseLookup(lookup);
         }
         
-        return null;
+        if (result == -1)
+            unknownEntities.put(entity, true);
+        else
+            entityToID.put(entity, result);
+        return result;
     }
     
     
-    public int getID(OWLEntity entity) throws SQLException {
-        if (entityToID.containsKey(entity))
-            return entityToID.get(entity);
+    public EntityCache<OWLEntity, Integer> getIDCache() {
+        return entityToID;
+    }
+    
+    
+    public int[] getIDs(Collection<? extends OWLEntity> entities) throws SQLException {
+        int[] result = new int[entities.size()];
         
-        int result = -1;
+        EntityDictionary dictionary = this.dictionary;
+        if (dictionary != null) {
+            int i = 0;
+            for (OWLEntity entity : entities) {
+                result[i++] = dictionary.getID(entity);
+            }
+            return result;
+        }
         
-        entityToIndex.setString(1, entity.getEntityType().getName());
-        entityToIndex.setString(2, entity.getIRI().toString());
+        // The cache answers the IDs it knows; the rest are fetched together
+        ArrayList<OWLEntity> misses = new ArrayList<>();
+        int i = 0;
+        for (OWLEntity entity : entities) {
+            Integer cached = entityToID.get(entity);
+            if (cached != null)
+                result[i] = cached;
+            else if (unknownEntities.get(entity) != null)
+                result[i] = -1;
+            else {
+                result[i] = 0; // Not a valid ID; this is resolved below
+                misses.add(entity);
+            }
+            i++;
+        }
+        if (misses.size() == 0)
+            return result;
         
-        try (ResultSet results = entityToIndex.executeQuery()) {
-            if (results.next())
-                result = results.getInt(1);
+        HashMap<OWLEntity, Integer> fetched = new HashMap<>();
+        Lookup lookup = acquireLookup();
+        try {
+            for (int start = 0; start < misses.size(); start += LOOKUP_CHUNK_SIZE) {
+                int end = Math.min(start + LOOKUP_CHUNK_SIZE, misses.size());
+                fetched.putAll(fetchIDs(lookup, misses.subList(start, end)));
+            }
+        }
+        finally {
+            releaseLookup(lookup);
         }
         
-        entityToID.put(entity, result);
+        i = 0;
+        for (OWLEntity entity : entities) {
+            if (result[i] == 0) {
+                Integer id = fetched.get(entity);
+                result[i] = id == null ? -1 : id;
+            }
+            i++;
+        }
         return result;
     }
     
     
-    public void setExtra(String key, String value) throws SQLException {
+    public int getNumberOfEntities(EntityType<?> type) throws SQLException {
+        try (PreparedStatement statement = getConnection()
+                .prepareStatement("SELECT COUNT(*) FROM owl_objects WHERE type = ?")) {
+            statement.setString(1, type.getName());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+    
+    
+    public EntityCache<OWLEntity, Boolean> getUnknownEntitiesCache() {
+        return unknownEntities;
+    }
+    
+    
+    // Streams all the entities in the database; unlike getAllEntities(), this does not keep them in memory
+    public EntityCursor<OWLEntity> iterateEntities() throws SQLException {
+        return openCursor(getSelectEntities());
+    }
+    
+    
+    // Streams all the entities of the given type in the database
+    public <U extends OWLEntity> EntityCursor<U> iterateEntities(EntityType<U> type) throws SQLException {
+        // The type name comes from the OWL API, not from user input, so it can be inlined in the query
+        return openCursor(getSelectEntities() + "WHERE owl_objects.type = '" + type.getName() + "'");
+    }
+    
+    
+    public synchronized void setExtra(String key, String value) throws SQLException {
         if (key.length() > 256)
             throw new IllegalArgumentException(String.format("Supplied key is longer than 256 characters"));
         
-        setExtra.setString(1, key);
-        setExtra.setString(2, value);
-        setExtra.executeUpdate();
+        extras.put(key, value);
+        dirtyExtras.add(key);
     }
 }
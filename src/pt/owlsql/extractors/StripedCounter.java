@@ -0,0 +1,49 @@
+package pt.owlsql.extractors;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// A counter that many threads can increment at the same time without fighting over one cache line. Each thread adds to
+// one of several cells, chosen by its ID, and the cells are kept a cache line apart; reading the counter sums them.
+final class StripedCounter {
+    
+    // The cells are this many longs apart, which is 64 bytes
+    private static final int PADDING = 8;
+    
+    // Twice the number of processors, rounded up to a power of two, so that few threads share a cell
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+    
+    
+    private static int cell() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+    
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+    
+    
+    long get() {
+        long result = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            result += cells.get(i * PADDING);
+        }
+        return result;
+    }
+    
+    
+    int getStripes() {
+        return STRIPES;
+    }
+    
+    
+    // Adds one to the cell of the current thread, returning the new value of that cell only
+    long increment() {
+        return cells.incrementAndGet(cell());
+    }
+    
+    
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+}
@@ -5,16 +5,19 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Set;
 
 import org.semanticweb.owlapi.model.EntityType;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLEntity;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLOntology;
 
 import pt.owlsql.OWLExtractor;
+import pt.owlsql.extractors.EntityCursor;
+import pt.owlsql.extractors.IntList;
 import pt.owlsql.extractors.SQLCoreUtils;
 
 
@@ -49,47 +52,47 @@ public final class RelationsExtractor extends OWLExtractor {
         
         System.out.println("Finding the direct relations between pairs of concepts");
         
-        // Start by getting a reference to all the classes
-        HashSet<OWLClass> allClasses = utils.getAllEntities(EntityType.CLASS);
-        
-        // And an Unfolder object
+        // Start with an Unfolder object
         Unfolder unfolder = new Unfolder();
         
+        // Stream the classes instead of loading them all into memory; the cursor also knows their IDs
         int counter = 0;
-        for (OWLClass owlClass : allClasses) {
-            Set<OWLClassExpression> superclasses = owlClass.getSuperClasses(ontologies);
-            superclasses.addAll(owlClass.getEquivalentClasses(ontologies));
-            
-            RelationsStore allRelations = new RelationsStore();
-            for (OWLClassExpression superclass : superclasses) {
-                if (superclass.isAnonymous())
-                    allRelations.addAll(superclass.accept(unfolder));
-            }
-            
-            int id = utils.getID(owlClass);
-            insertStatement.setInt(1, id);
-            for (Chain chain : allRelations) {
-                if (chain.propertiesLength() == 0)
-                    continue;
+        try (EntityCursor<OWLClass> cursor = utils.iterateEntities(EntityType.CLASS)) {
+            while (cursor.hasNext()) {
+                OWLClass owlClass = cursor.next();
+                Set<OWLClassExpression> superclasses = owlClass.getSuperClasses(ontologies);
+                superclasses.addAll(owlClass.getEquivalentClasses(ontologies));
                 
-                OWLObjectProperty[] properties = chain.getChain();
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < properties.length; i++) {
-                    if (i > 0)
-                        sb.append(",");
-                    sb.append(utils.getID(properties[i]));
+                RelationsStore allRelations = new RelationsStore();
+                for (OWLClassExpression superclass : superclasses) {
+                    if (superclass.isAnonymous())
+                        allRelations.addAll(superclass.accept(unfolder));
                 }
-                insertStatement.setString(2, sb.toString());
                 
-                int endID = utils.getID(chain.getEndPoint());
-                insertStatement.setInt(3, endID);
-                insertStatement.addBatch();
-            }
-            
-            counter++;
-            if (counter % 1000 == 0) {
-                System.out.println("... relations for " + counter + " classes found ...");
-                insertStatement.executeBatch();
+                insertStatement.setInt(1, cursor.getID());
+                for (Chain chain : allRelations) {
+                    if (chain.propertiesLength() == 0)
+                        continue;
+                    
+                    OWLObjectProperty[] properties = chain.getChain();
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < properties.length; i++) {
+                        if (i > 0)
+                            sb.append(",");
+                        sb.append(utils.getID(properties[i]));
+                    }
+                    insertStatement.setString(2, sb.toString());
+                    
+                    int endID = utils.getID(chain.getEndPoint());
+                    insertStatement.setInt(3, endID);
+                    insertStatement.addBatch();
+                }
+                
+                counter++;
+                if (counter % 1000 == 0) {
+                    System.out.println("... relations for " + counter + " classes found ...");
+                    insertStatement.executeBatch();
+                }
             }
         }
         
@@ -99,25 +102,36 @@ public final class RelationsExtractor extends OWLExtractor {
     
     
     public RelationsStore getRelations(OWLClass cls) throws SQLException {
-        RelationsStore result = new RelationsStore();
+        // Collect the IDs of all properties and end points first, to resolve them at once
+        ArrayList<String[]> chains = new ArrayList<>();
+        IntList ids = new IntList();
         
         getRelationsStatement.setInt(1, utils.getID(cls));
         try (ResultSet resultSet = getRelationsStatement.executeQuery()) {
             while (resultSet.next()) {
-                String chainString = resultSet.getString(1);
-                int endID = resultSet.getInt(2);
-                
-                String[] fields = chainString.split(",");
-                OWLObjectProperty[] properties = new OWLObjectProperty[fields.length];
-                for (int i = 0; i < properties.length; i++) {
-                    properties[i] = utils.getEntity(Integer.parseInt(fields[i])).asOWLObjectProperty();
+                String[] fields = resultSet.getString(1).split(",");
+                for (String field : fields) {
+                    ids.add(Integer.parseInt(field));
                 }
-                OWLClass endPoint = utils.getEntity(endID).asOWLClass();
-                
-                result.add(new Chain(properties, endPoint));
+                ids.add(resultSet.getInt(2));
+                chains.add(fields);
             }
         }
         
+        OWLEntity[] entities = utils.getEntities(ids.toArray());
+        
+        RelationsStore result = new RelationsStore();
+        int index = 0;
+        for (String[] fields : chains) {
+            OWLObjectProperty[] properties = new OWLObjectProperty[fields.length];
+            for (int i = 0; i < properties.length; i++) {
+                properties[i] = entities[index++].asOWLObjectProperty();
+            }
+            OWLClass endPoint = entities[index++].asOWLClass();
+            
+            result.add(new Chain(properties, endPoint));
+        }
+        
         return result;
     }
     